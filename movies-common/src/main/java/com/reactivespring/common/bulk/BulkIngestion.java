@@ -0,0 +1,152 @@
+package com.reactivespring.common.bulk;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.WriteError;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+    POST .../bulk with one json record per line (application/x-ndjson), one result per record streamed back
+    - the body is split into lines here and every line is parsed on its own, a line that is not valid json
+      gets its own 400 instead of failing the whole response
+    - valid records of a batch are written with one unordered insertMany, a failing one does not stop the rest
+    - a batch is closed after batchSize records or maxWait, whichever comes first, so results of a slow or
+      small upload come back while the body is still being read
+    - batches are written one at a time, which keeps memory bounded and the results in request order
+ */
+public class BulkIngestion<T, R> {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static final ResolvableType STRING = ResolvableType.forClass(String.class);
+
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final Class<T> type;
+    private final Function<T, String> idOf;
+    private final ResultFactory<R> resultFactory;
+    private final int batchSize;
+    private final Duration maxWait;
+
+    // splits on \n and \r\n and drops the delimiters, a line may span several data buffers
+    private final StringDecoder lineDecoder = StringDecoder.allMimeTypes();
+
+    public BulkIngestion(ObjectMapper objectMapper, Validator validator, Class<T> type, Function<T, String> idOf,
+                         ResultFactory<R> resultFactory, int batchSize, Duration maxWait) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.type = type;
+        this.idOf = idOf;
+        this.resultFactory = resultFactory;
+        this.batchSize = batchSize;
+        this.maxWait = maxWait;
+    }
+
+    /*
+        insertUnordered - returns the write error of every failed position of the list, empty map when all were inserted
+        onInserted - gets the inserted records once per batch, the batch results are sent after it completes
+     */
+    public Flux<R> ingest(Flux<DataBuffer> body, Function<List<T>, Mono<Map<Integer, WriteError>>> insertUnordered,
+                          Function<List<T>, Mono<Void>> onInserted) {
+        return lineDecoder.decode(body, STRING, null, null)
+                .filter(line -> !line.isBlank())
+                .index()
+                .map(this::parse)
+                // bufferTimeout can't hold a batch back when none is requested, concatMap asks for 32 batches ahead,
+                // so this only overflows when one insertMany stalls for longer than 32 * maxWait
+                .bufferTimeout(batchSize, maxWait)
+                .concatMap(batch -> insertBatch(batch, insertUnordered, onInserted));
+    }
+
+    private Line<T> parse(Tuple2<Long, String> line) {
+        try {
+            return new Line<>(line.getT1(), objectMapper.readValue(line.getT2(), type), null);
+        } catch (JsonProcessingException e) {
+            return new Line<>(line.getT1(), null, "Malformed json: " + e.getOriginalMessage());
+        }
+    }
+
+    private Flux<R> insertBatch(List<Line<T>> batch, Function<List<T>, Mono<Map<Integer, WriteError>>> insertUnordered,
+                                Function<List<T>, Mono<Void>> onInserted) {
+        var results = new ArrayList<R>(batch.size());
+        var valid = new ArrayList<Line<T>>();
+        for (var line : batch) {
+            var error = line.error != null ? line.error : violations(line.record);
+            if (error == null) {
+                valid.add(line);
+                // placeholder keeps the request order, the result is known after the insert
+                results.add(null);
+            } else {
+                var id = line.record != null ? idOf.apply(line.record) : null;
+                results.add(resultFactory.create(line.index, id, 400, error));
+            }
+        }
+        if (valid.isEmpty()) {
+            return Flux.fromIterable(results);
+        }
+
+        var firstIndex = batch.get(0).index;
+        var toInsert = valid.stream().map(line -> line.record).collect(Collectors.toList());
+        return insertUnordered.apply(toInsert)
+                .flatMapMany(writeErrors -> {
+                    var inserted = new ArrayList<T>();
+                    for (int i = 0; i < valid.size(); i++) {
+                        var line = valid.get(i);
+                        var id = idOf.apply(line.record);
+                        var writeError = writeErrors.get(i);
+                        if (writeError == null) {
+                            inserted.add(line.record);
+                            results.set((int) (line.index - firstIndex), resultFactory.create(line.index, id, 201, null));
+                        } else {
+                            var status = writeError.getCode() == DUPLICATE_KEY ? 409 : 500;
+                            results.set((int) (line.index - firstIndex), resultFactory.create(line.index, id, status, writeError.getMessage()));
+                        }
+                    }
+                    var notify = inserted.isEmpty() ? Mono.<Void>empty() : onInserted.apply(inserted);
+                    return notify.thenMany(Flux.fromIterable(results));
+                });
+    }
+
+    private String violations(T record) {
+        var violations = validator.validate(record);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    // one line of the bulk response - index is the position of the record in the request body, id null when unknown
+    public interface ResultFactory<R> {
+        R create(Long index, String id, Integer status, String error);
+    }
+
+    private static class Line<T> {
+
+        private final long index;
+        private final T record;
+        private final String error;
+
+        Line(long index, T record, String error) {
+            this.index = index;
+            this.record = record;
+            this.error = error;
+        }
+    }
+}
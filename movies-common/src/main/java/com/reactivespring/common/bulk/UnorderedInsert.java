@@ -0,0 +1,42 @@
+package com.reactivespring.common.bulk;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+    one unordered insertMany straight on the driver collection, a failing document does not stop the rest
+    entities are only converted, this skips Spring Data's lifecycle events (BeforeConvert, BeforeSave, AfterSave),
+    auditing and @Version handling - callers assign ids, versions and timestamps themselves before calling it
+ */
+public final class UnorderedInsert {
+
+    private UnorderedInsert() {
+    }
+
+    // write error of every failed position in the list, empty map when all were inserted
+    public static <T> Mono<Map<Integer, WriteError>> insertUnordered(ReactiveMongoTemplate reactiveMongoTemplate,
+                                                                     Class<T> entityClass, List<T> entities) {
+        var documents = entities.stream()
+                .map(entity -> {
+                    var document = new Document();
+                    reactiveMongoTemplate.getConverter().write(entity, document);
+                    return document;
+                })
+                .collect(Collectors.toList());
+
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(entityClass))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .<Map<Integer, WriteError>>map(result -> Map.of())
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(ex.getWriteErrors().stream()
+                        .collect(Collectors.<BulkWriteError, Integer, WriteError>toMap(BulkWriteError::getIndex, error -> error))));
+    }
+}
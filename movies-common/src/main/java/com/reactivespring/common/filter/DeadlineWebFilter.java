@@ -0,0 +1,47 @@
+package com.reactivespring.common.filter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/*
+    honours the deadline sent by movies-service in X-Request-Timeout header (remaining milliseconds)
+    when it passes nobody waits for the response anymore, so the request is cancelled
+    together with the mongo query behind it
+    not a @Component - movies-service has a deadline filter of its own, services behind it @Import this one
+ */
+@Slf4j
+public class DeadlineWebFilter implements WebFilter {
+
+    public static final String HEADER = "X-Request-Timeout";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var header = exchange.getRequest().getHeaders().getFirst(HEADER);
+        // streams are open as long as the client wants them
+        if (header == null || exchange.getRequest().getPath().value().endsWith("/stream")) {
+            return chain.filter(exchange);
+        }
+
+        long timeoutMillis;
+        try {
+            timeoutMillis = Long.parseLong(header.trim());
+        } catch (NumberFormatException ex) {
+            log.warn("Ignoring invalid {} header: {}", HEADER, header);
+            return chain.filter(exchange);
+        }
+
+        if (timeoutMillis <= 0) {
+            return Mono.error(new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Deadline exceeded before processing"));
+        }
+        return chain.filter(exchange)
+                .timeout(Duration.ofMillis(timeoutMillis), Mono.error(() ->
+                        new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Deadline exceeded")));
+    }
+}
@@ -0,0 +1,75 @@
+package com.reactivespring.common.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+    creates the indexes declared on the given documents (@Indexed, @CompoundIndex) at startup and checks they
+    really exist afterwards, application does not start with a missing index because every query behind it
+    would silently become a collection scan
+    runs once all singletons are created, during the context refresh - the web server is only started after it,
+    so no request is served before the indexes exist (an ApplicationRunner would run after the server started)
+    services subclass it as a @Component with their document types
+ */
+@Slf4j
+public class IndexInitializer implements SmartInitializingSingleton {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private MongoMappingContext mongoMappingContext;
+
+    private List<Class<?>> documentTypes;
+
+    public IndexInitializer(ReactiveMongoTemplate reactiveMongoTemplate, MongoMappingContext mongoMappingContext,
+                            Class<?>... documentTypes) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.mongoMappingContext = mongoMappingContext;
+        this.documentTypes = List.of(documentTypes);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        documentTypes.forEach(this::ensureIndexes);
+    }
+
+    private void ensureIndexes(Class<?> documentType) {
+        var collectionName = reactiveMongoTemplate.getCollectionName(documentType);
+        var indexOps = reactiveMongoTemplate.indexOps(documentType);
+        List<IndexDefinition> declared = new ArrayList<>();
+        IndexResolver.create(mongoMappingContext).resolveIndexFor(documentType).forEach(declared::add);
+
+        var expected = declared.stream()
+                .map(index -> index.getIndexOptions().getString("name"))
+                .collect(Collectors.toList());
+
+        // blocking is fine here, called once on the thread refreshing the context
+        var existing = Flux.fromIterable(declared)
+                .concatMap(indexOps::ensureIndex)
+                .thenMany(indexOps.getIndexInfo())
+                .map(IndexInfo::getName)
+                .collect(Collectors.toCollection(HashSet::new))
+                .block(TIMEOUT);
+
+        var missing = expected.stream()
+                .filter(name -> existing == null || !existing.contains(name))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Missing indexes on " + collectionName + ": " + missing);
+        }
+        log.info("Verified indexes on {}: {}", collectionName, expected);
+    }
+}
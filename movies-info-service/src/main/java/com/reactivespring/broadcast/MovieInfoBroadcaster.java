@@ -0,0 +1,175 @@
+package com.reactivespring.broadcast;
+
+import com.reactivespring.domain.MovieInfoEvent;
+import com.reactivespring.exception.MovieInfoStreamLimitException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/*
+    fan-out of movie info changes to every /stream subscriber
+    - any number of request threads can emit at the same time, concurrent emissions are retried instead of dropped
+    - every subscriber reads from its own bounded buffer, a slow one never holds back the others
+      when its buffer is full it either loses the oldest items (DROP_OLDEST) or is disconnected (DISCONNECT)
+    - new subscribers get the latest event first, like the old replay().latest() sink
+    - subscribers that catch up first (Last-Event-ID, snapshot) are counted and buffered the same way, but always
+      disconnected when their buffer is full - they could not tell they lost something, a reconnect can
+ */
+@Component
+@Slf4j
+public class MovieInfoBroadcaster {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DISCONNECT
+    }
+
+    private final Sinks.Many<MovieInfoEvent> sink = Sinks.many().replay().latest();
+
+    private final Set<SubscriberState> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxSubscribers;
+
+    private final Counter emitted;
+    private final Counter emitFailed;
+    private final Counter dropped;
+    private final Counter disconnected;
+    private final Counter rejected;
+
+    public MovieInfoBroadcaster(@Value("${movieInfo.broadcast.bufferSize:256}") int bufferSize,
+                                @Value("${movieInfo.broadcast.overflow:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                                @Value("${movieInfo.broadcast.maxSubscribers:1000}") int maxSubscribers,
+                                MeterRegistry meterRegistry) {
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.maxSubscribers = maxSubscribers;
+
+        this.emitted = Counter.builder("movieinfo.broadcast.emitted")
+                .description("Movie info events published to the stream")
+                .register(meterRegistry);
+        this.emitFailed = Counter.builder("movieinfo.broadcast.dropped")
+                .description("Movie info events that could not be published at all")
+                .tag("reason", "emit_failed")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("movieinfo.broadcast.dropped")
+                .description("Movie info events dropped from a full subscriber buffer")
+                .tag("reason", "overflow")
+                .register(meterRegistry);
+        this.disconnected = Counter.builder("movieinfo.broadcast.disconnected")
+                .description("Subscribers disconnected because they could not keep up")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("movieinfo.broadcast.rejected")
+                .description("Subscriptions rejected because of the subscriber limit")
+                .register(meterRegistry);
+        Gauge.builder("movieinfo.broadcast.subscribers", subscribers, Set::size)
+                .description("Connected stream subscribers")
+                .register(meterRegistry);
+        Gauge.builder("movieinfo.broadcast.lagging", this, MovieInfoBroadcaster::laggingSubscribers)
+                .description("Subscribers with their buffer at least half full")
+                .register(meterRegistry);
+    }
+
+    public void emit(MovieInfoEvent movieInfoEvent) {
+        Sinks.EmitResult result;
+        // another thread is emitting right now, it is done in a moment - spin instead of losing the item
+        while ((result = sink.tryEmitNext(movieInfoEvent)) == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            Thread.onSpinWait();
+        }
+        if (result.isSuccess()) {
+            emitted.increment();
+        } else {
+            log.warn("Movie info {} event for {} not published to the stream: {}", movieInfoEvent.getType(), movieInfoEvent.getMovieInfoId(), result);
+            emitFailed.increment();
+        }
+    }
+
+    // one call per saved batch
+    public void emitAll(List<MovieInfoEvent> movieInfoEvents) {
+        movieInfoEvents.forEach(this::emit);
+    }
+
+    public Flux<MovieInfoEvent> subscribe() {
+        return Flux.defer(() -> {
+            var state = register();
+            return live(state, movieInfoEvent -> true, overflowPolicy)
+                    .doFinally(signalType -> subscribers.remove(state));
+        });
+    }
+
+    /*
+        subscriber that first catches up on what happened before it connected (Last-Event-ID, snapshot)
+        counted against maxSubscribers and buffered like any other: live events go into its bounded buffer from
+        the moment it subscribes, catchUp is read meanwhile and the buffer is drained after it through liveFilter
+        a full buffer disconnects it whatever movieInfo.broadcast.overflow says, a dropped item would be a silent gap
+     */
+    public Flux<MovieInfoEvent> subscribe(Flux<MovieInfoEvent> catchUp, Predicate<MovieInfoEvent> liveFilter) {
+        return Flux.defer(() -> {
+            var state = register();
+            // catchUp starts only once live is connected, so whatever happens after its start is in the buffer
+            var liveConnected = Sinks.empty();
+            var live = live(state, liveFilter, OverflowPolicy.DISCONNECT)
+                    .doOnSubscribe(subscription -> liveConnected.tryEmitEmpty());
+            // both are subscribed right away, live is taken one at a time and waits in its own buffer
+            return Flux.mergeSequential(List.of(catchUp.delaySubscription(liveConnected.asMono()), live), 2, 1)
+                    .doFinally(signalType -> subscribers.remove(state));
+        });
+    }
+
+    private SubscriberState register() {
+        if (subscribers.size() >= maxSubscribers) {
+            rejected.increment();
+            throw new MovieInfoStreamLimitException("Too many movie info stream subscribers, limit is " + maxSubscribers);
+        }
+        var state = new SubscriberState();
+        subscribers.add(state);
+        return state;
+    }
+
+    private Flux<MovieInfoEvent> live(SubscriberState state, Predicate<MovieInfoEvent> liveFilter, OverflowPolicy policy) {
+        var strategy = policy == OverflowPolicy.DISCONNECT ? BufferOverflowStrategy.ERROR : BufferOverflowStrategy.DROP_OLDEST;
+        return sink.asFlux()
+                .doOnNext(movieInfoEvent -> state.pending.incrementAndGet())
+                .onBackpressureBuffer(bufferSize, droppedInfo -> {
+                    state.pending.decrementAndGet();
+                    dropped.increment();
+                }, strategy)
+                .doOnNext(movieInfoEvent -> state.pending.decrementAndGet())
+                .filter(liveFilter)
+                .doOnError(ex -> {
+                    if (Exceptions.isOverflow(ex)) {
+                        log.warn("Disconnecting slow movie info stream subscriber, {} items buffered", bufferSize);
+                        disconnected.increment();
+                    }
+                });
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private double laggingSubscribers() {
+        return subscribers.stream()
+                .filter(state -> state.pending.get() * 2 >= bufferSize)
+                .count();
+    }
+
+    private static class SubscriberState {
+        // items received from the hub and not yet taken by the subscriber
+        private final AtomicInteger pending = new AtomicInteger();
+    }
+}
@@ -0,0 +1,340 @@
+package com.reactivespring.broadcast;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.changestream.OperationType;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoEvent;
+import com.reactivespring.exception.MovieInfoResumeTokenException;
+import com.reactivespring.repository.MovieInfoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    source of /v1/movieInfos/stream
+    every instance tails the change stream of the movieInfo collection, so inserts, updates and deletes
+    made through any instance (or directly in mongo) reach every subscriber
+    - one shared change stream per instance feeds MovieInfoBroadcaster, it is restarted when it ends or fails
+    - a subscriber reconnecting with Last-Event-ID reads its own change stream resumed after that token only until
+      it has caught up, then it continues on the broadcaster like everybody else
+    - when the oplog no longer has the point a stream continues from, subscribers get a reset event and resync
+    with movieInfo.stream.changeStream=false (mongo without replica set) only local writes are published
+ */
+@Component
+@Slf4j
+public class MovieInfoChangeStream {
+
+    private static final String CLUSTER_TIME = "clusterTime";
+
+    // ChangeStreamHistoryLost (4.4+), ChangeStreamFatalError (4.2), "resume point may no longer be in the oplog" (4.0),
+    // CappedPositionLost (oplog rolled over while reading it)
+    private static final Set<Integer> HISTORY_LOST_CODES = Set.of(286, 280, 40576, 136);
+
+    private static final Set<OperationType> STREAMED_OPERATIONS = Set.of(OperationType.INSERT, OperationType.UPDATE,
+            OperationType.REPLACE, OperationType.DELETE);
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private MovieInfoRepository movieInfoRepository;
+
+    private MovieInfoBroadcaster movieInfoBroadcaster;
+
+    @Value("${movieInfo.stream.changeStream:true}")
+    private boolean changeStreamEnabled;
+
+    // a Last-Event-ID catch-up stream that got nothing for this long has read everything up to now
+    @Value("${movieInfo.stream.catchUpIdle:PT2S}")
+    private Duration catchUpIdle;
+
+    // instances' clocks differ by at most this much, lastModified of a change can be this much behind the cluster time
+    @Value("${movieInfo.sync.safetyLag:PT5S}")
+    private Duration clockSafetyLag;
+
+    // last event seen by the shared stream, it continues from here after a failure
+    private AtomicReference<String> lastResumeToken = new AtomicReference<>();
+
+    private Disposable subscription;
+
+    public MovieInfoChangeStream(ReactiveMongoTemplate reactiveMongoTemplate, MovieInfoRepository movieInfoRepository,
+                                 MovieInfoBroadcaster movieInfoBroadcaster) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.movieInfoRepository = movieInfoRepository;
+        this.movieInfoBroadcaster = movieInfoBroadcaster;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!changeStreamEnabled) {
+            log.info("Change streams disabled, movie info stream publishes local writes only");
+            return;
+        }
+
+        subscription = Flux.defer(() -> listen(lastResumeToken.get()))
+                .doOnNext(event -> lastResumeToken.set(event.getResumeToken()))
+                // ends when the collection is dropped or renamed, stream subscribers would silently starve
+                // a stream can't be resumed after that, it starts again from now
+                .doOnComplete(() -> {
+                    log.warn("Movie info change stream ended, restarting");
+                    lastResumeToken.set(null);
+                })
+                .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                .doOnError(ex -> {
+                    if (historyLost(ex)) {
+                        // resuming fails the same way forever, start again from now and tell subscribers they missed changes
+                        log.warn("Movie info change stream history lost, restarting from now: {}", ex.getMessage());
+                        lastResumeToken.set(null);
+                        movieInfoBroadcaster.emit(MovieInfoEvent.reset());
+                    } else {
+                        log.warn("Movie info change stream failed, resuming: {}", ex.getMessage());
+                    }
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30)))
+                .subscribe(movieInfoBroadcaster::emit);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    // lastEventId is the resume token of the last event the subscriber has seen
+    public Flux<MovieInfoEvent> subscribe(String lastEventId, boolean snapshot) {
+        if (snapshot) {
+            return snapshotThenListen();
+        }
+        if (lastEventId != null && changeStreamEnabled) {
+            return resume(lastEventId);
+        }
+        return movieInfoBroadcaster.subscribe();
+    }
+
+    /*
+        changes after lastEventId from an own change stream, then live ones from the broadcaster
+        live changes are buffered from the start, the own stream reads up to the cluster time read once they are,
+        everything later comes from the buffer - it is closed as soon as it has caught up
+     */
+    private Flux<MovieInfoEvent> resume(String lastEventId) {
+        // invalid token fails the request with 400 instead of ending an open stream
+        parseResumeToken(lastEventId);
+        var handOverAt = new AtomicReference<BsonTimestamp>();
+        var catchUp = operationTime()
+                .doOnNext(handOverAt::set)
+                .flatMapMany(clusterTime -> listen(lastEventId)
+                        .takeWhile(event -> event.getClusterTime() == null || event.getClusterTime().compareTo(clusterTime) <= 0)
+                        // nothing written since the hand-over time, no later event would end the takeWhile
+                        .timeout(catchUpIdle, Flux.empty())
+                        // lastEventId is older than the oplog, the client has to resync - live changes follow
+                        .onErrorResume(MovieInfoChangeStream::historyLost, ex -> Flux.just(MovieInfoEvent.reset())));
+        return movieInfoBroadcaster.subscribe(catchUp,
+                event -> event.getClusterTime() == null || handOverAt.get() == null
+                        || event.getClusterTime().compareTo(handOverAt.get()) > 0);
+    }
+
+    /*
+        every existing movie info (type snapshot), then a snapshot-end marker, then live changes from the broadcaster
+        live changes are buffered from before the snapshot is read, so nothing between the two is lost
+        a buffered change can be part of the snapshot already - see SnapshotWindow - it is then skipped
+        snapshot-end carries the cluster time read before the snapshot as its id, a client reconnecting with it as
+        Last-Event-ID gets every change after that time
+     */
+    private Flux<MovieInfoEvent> snapshotThenListen() {
+        return Flux.defer(() -> {
+            var window = new SnapshotWindow(Instant.now().minus(clockSafetyLag));
+            var start = changeStreamEnabled
+                    ? operationTime().doOnNext(window::start).then()
+                    : Mono.<Void>empty();
+            var catchUp = start.thenMany(Flux.concat(
+                    movieInfoRepository.findMovieInfos(null, null, null, null)
+                            .doOnNext(window::snapshotted)
+                            .map(MovieInfoEvent::snapshot),
+                    snapshotEnd(window)));
+            return movieInfoBroadcaster.subscribe(catchUp, window::isNew);
+        });
+    }
+
+    private Mono<MovieInfoEvent> snapshotEnd(SnapshotWindow window) {
+        var end = changeStreamEnabled
+                ? operationTime().doOnNext(window::end).then()
+                : Mono.<Void>empty();
+        return end.then(Mono.fromCallable(() -> {
+            // no change after the end time may come at all, the window is not kept for the whole connection
+            Schedulers.parallel().schedule(window::close, catchUpIdle.toMillis(), TimeUnit.MILLISECONDS);
+            return MovieInfoEvent.snapshotEnd(clusterTimeToken(window.startClusterTime));
+        }));
+    }
+
+    // cluster time of the latest write the server knows about, only replica sets report it
+    private Mono<BsonTimestamp> operationTime() {
+        return reactiveMongoTemplate.executeCommand(new Document("isMaster", 1))
+                .map(response -> response.get("operationTime", BsonTimestamp.class));
+    }
+
+    // without change streams nobody else would see the write
+    public void publishLocal(List<MovieInfoEvent> movieInfoEvents) {
+        if (!changeStreamEnabled) {
+            movieInfoBroadcaster.emitAll(movieInfoEvents);
+        }
+    }
+
+    public Flux<MovieInfoEvent> listen(String resumeToken) {
+        var options = ChangeStreamOptions.builder().returnFullDocumentOnUpdate();
+        if (resumeToken != null) {
+            var token = parseResumeToken(resumeToken);
+            if (token.isTimestamp(CLUSTER_TIME)) {
+                // snapshot-end id, startAtOperationTime includes changes at that time - they are in the snapshot
+                var clusterTime = token.getTimestamp(CLUSTER_TIME);
+                options.resumeAt(new BsonTimestamp(clusterTime.getTime(), clusterTime.getInc() + 1));
+            } else {
+                options.resumeAfter(token);
+            }
+        }
+        return changes(options.build())
+                .map(MovieInfoChangeStream::toMovieInfoEvent);
+    }
+
+    private Flux<ChangeStreamEvent<MovieInfo>> changes(ChangeStreamOptions options) {
+        return reactiveMongoTemplate.changeStream(null, reactiveMongoTemplate.getCollectionName(MovieInfo.class), options, MovieInfo.class)
+                .filter(event -> STREAMED_OPERATIONS.contains(event.getOperationType()));
+    }
+
+    private static BsonDocument parseResumeToken(String resumeToken) {
+        try {
+            return BsonDocument.parse(resumeToken);
+        } catch (JsonParseException ex) {
+            throw new MovieInfoResumeTokenException("Invalid movie info stream resume token: " + resumeToken);
+        }
+    }
+
+    // the change stream can't continue from its resume token or time, it is no longer in the oplog
+    private static boolean historyLost(Throwable ex) {
+        for (var cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException && HISTORY_LOST_CODES.contains(((MongoException) cause).getCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // resume token of a point in time instead of a change, {"clusterTime": {"$timestamp": ...}}
+    private static String clusterTimeToken(BsonTimestamp clusterTime) {
+        return clusterTime == null ? null : new BsonDocument(CLUSTER_TIME, clusterTime).toJson();
+    }
+
+    private static MovieInfoEvent toMovieInfoEvent(ChangeStreamEvent<MovieInfo> event) {
+        var type = event.getOperationType() == OperationType.INSERT ? MovieInfoEvent.INSERT
+                : event.getOperationType() == OperationType.DELETE ? MovieInfoEvent.DELETE
+                : MovieInfoEvent.UPDATE;
+        var resumeToken = event.getResumeToken() == null ? null : event.getResumeToken().asDocument().toJson();
+        var clusterTime = event.getRaw() == null ? null : event.getRaw().getClusterTime();
+        return new MovieInfoEvent(type, movieInfoId(event), event.getBody(), resumeToken, clusterTime);
+    }
+
+    // ids are ObjectIds unless the client chose its own string id
+    private static String movieInfoId(ChangeStreamEvent<MovieInfo> event) {
+        BsonValue id = event.getRaw() == null || event.getRaw().getDocumentKey() == null ? null : event.getRaw().getDocumentKey().get("_id");
+        if (id == null) {
+            return event.getBody() == null ? null : event.getBody().getMovieInfoId();
+        }
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+    /*
+        which buffered live changes a snapshot subscriber already has, exactly and without remembering the whole snapshot
+        - changes up to the cluster time read before the snapshot are in it and skipped
+        - changes after it can go either way, the snapshot then has the document as written by the change or later
+          and its lastModified is from after the start - minus the safety lag, lastModified is the writing instance's
+          clock. the snapshot remembers id and version of these documents only, about as many as changes fit into
+          the live buffer (it disconnects the subscriber when full) plus the writes of the safety lag
+        - such a change is skipped when the snapshot sent that version of the document or a newer one
+        - changes without a version (documents from before versioning, direct writes in mongo) and deletes are
+          always sent, a delete of a document the snapshot did not have is a no-op for the client
+        - change streams deliver in cluster time order, the first change after the cluster time read at the
+          snapshot end closes the window: nothing from there on can be in the snapshot
+          without one it is closed catchUpIdle after the end, when every change made during the read has arrived
+     */
+    private static class SnapshotWindow {
+
+        private final Instant modifiedAfter;
+        private final Map<String, Long> sentVersions = new ConcurrentHashMap<>();
+        private volatile BsonTimestamp startClusterTime;
+        private volatile BsonTimestamp endClusterTime;
+        private volatile boolean closed;
+
+        SnapshotWindow(Instant modifiedAfter) {
+            this.modifiedAfter = modifiedAfter;
+        }
+
+        void start(BsonTimestamp clusterTime) {
+            startClusterTime = clusterTime;
+        }
+
+        void snapshotted(MovieInfo movieInfo) {
+            if (movieInfo.getVersion() != null && movieInfo.getLastModified() != null
+                    && !movieInfo.getLastModified().isBefore(modifiedAfter)) {
+                sentVersions.put(movieInfo.getMovieInfoId(), movieInfo.getVersion());
+            }
+        }
+
+        void end(BsonTimestamp clusterTime) {
+            endClusterTime = clusterTime;
+        }
+
+        void close() {
+            closed = true;
+            sentVersions.clear();
+        }
+
+        boolean isNew(MovieInfoEvent event) {
+            if (closed) {
+                return true;
+            }
+            var clusterTime = event.getClusterTime();
+            if (clusterTime != null && endClusterTime != null && clusterTime.compareTo(endClusterTime) > 0) {
+                close();
+                return true;
+            }
+            return !madeBeforeStart(clusterTime) && !alreadySent(event);
+        }
+
+        private boolean madeBeforeStart(BsonTimestamp clusterTime) {
+            return clusterTime != null && startClusterTime != null && clusterTime.compareTo(startClusterTime) <= 0;
+        }
+
+        private boolean alreadySent(MovieInfoEvent event) {
+            if (MovieInfoEvent.DELETE.equals(event.getType())) {
+                return false;
+            }
+            var version = event.getMovieInfo() == null ? null : event.getMovieInfo().getVersion();
+            var sent = event.getMovieInfoId() == null ? null : sentVersions.get(event.getMovieInfoId());
+            return version != null && sent != null && sent >= version;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.reactivespring.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.time.Duration;
+
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer slowQueryLogCustomizer(@Value("${movieInfo.mongo.slowQueryThreshold:100ms}") Duration threshold,
+                                                                       ObjectProvider<ReactiveMongoTemplate> reactiveMongoTemplate) {
+        var listener = new SlowQueryListener(threshold, reactiveMongoTemplate);
+        return builder -> builder.addCommandListener(listener);
+    }
+}
@@ -0,0 +1,17 @@
+package com.reactivespring.config;
+
+import com.reactivespring.common.index.IndexInitializer;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoTombstone;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+// indexes of MovieInfo and MovieInfoTombstone exist before the first request, see IndexInitializer
+@Component
+public class MovieInfoIndexInitializer extends IndexInitializer {
+
+    public MovieInfoIndexInitializer(ReactiveMongoTemplate reactiveMongoTemplate, MongoMappingContext mongoMappingContext) {
+        super(reactiveMongoTemplate, mongoMappingContext, MovieInfo.class, MovieInfoTombstone.class);
+    }
+}
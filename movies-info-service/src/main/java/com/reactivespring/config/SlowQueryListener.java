@@ -0,0 +1,136 @@
+package com.reactivespring.config;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+    logs every mongo query command slower than the threshold, together with the query plan
+    plan is fetched with a separate explain after the slow command finished, so the slow path
+    itself is not delayed - explain commands are never recorded so there is no loop
+ */
+@Slf4j
+public class SlowQueryListener implements CommandListener {
+
+    private static final Set<String> QUERY_COMMANDS = Set.of("find", "aggregate", "count", "distinct", "findAndModify", "update", "delete");
+
+    // fields added by the driver, explain does not accept them inside the explained command
+    private static final Set<String> SESSION_FIELDS = Set.of("lsid", "txnNumber", "autocommit", "startTransaction", "readConcern");
+
+    private Duration threshold;
+
+    // template is created from the same mongo client this listener is registered on, so it is looked up lazily
+    private ObjectProvider<ReactiveMongoTemplate> reactiveMongoTemplate;
+
+    private Map<Integer, BsonDocument> startedCommands = new ConcurrentHashMap<>();
+
+    public SlowQueryListener(Duration threshold, ObjectProvider<ReactiveMongoTemplate> reactiveMongoTemplate) {
+        this.threshold = threshold;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (QUERY_COMMANDS.contains(event.getCommandName())) {
+            // event document is backed by the driver's buffer, it has to be copied
+            startedCommands.put(event.getRequestId(), event.getCommand().clone());
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        var command = startedCommands.remove(event.getRequestId());
+        var elapsedMillis = event.getElapsedTime(TimeUnit.MILLISECONDS);
+        if (command != null && elapsedMillis >= threshold.toMillis()) {
+            reportSlowQuery(event.getCommandName(), command, elapsedMillis);
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        var command = startedCommands.remove(event.getRequestId());
+        var elapsedMillis = event.getElapsedTime(TimeUnit.MILLISECONDS);
+        if (command != null && elapsedMillis >= threshold.toMillis()) {
+            log.warn("Slow mongo {} failed after {} ms: {}", event.getCommandName(), elapsedMillis, command.toJson(), event.getThrowable());
+        }
+    }
+
+    private void reportSlowQuery(String commandName, BsonDocument command, long elapsedMillis) {
+        var template = reactiveMongoTemplate.getIfAvailable();
+        if (template == null) {
+            log.warn("Slow mongo {} took {} ms: {}", commandName, elapsedMillis, command.toJson());
+            return;
+        }
+
+        var explained = new Document();
+        command.forEach((key, value) -> {
+            if (!key.startsWith("$") && !SESSION_FIELDS.contains(key)) {
+                explained.put(key, value);
+            }
+        });
+
+        template.executeCommand(new Document("explain", explained).append("verbosity", "queryPlanner"))
+                .map(SlowQueryListener::planSummary)
+                .onErrorReturn("unavailable")
+                .subscribe(plan -> log.warn("Slow mongo {} took {} ms, plan: {}, command: {}", commandName, elapsedMillis, plan, command.toJson()));
+    }
+
+    // e.g. FETCH <- IXSCAN(year_id)
+    static String planSummary(Document explain) {
+        var plan = findWinningPlan(explain);
+        if (plan == null) {
+            return "unknown";
+        }
+
+        var summary = new StringBuilder();
+        while (plan != null) {
+            if (summary.length() > 0) {
+                summary.append(" <- ");
+            }
+            summary.append(plan.getString("stage"));
+            if (plan.containsKey("indexName")) {
+                summary.append("(").append(plan.getString("indexName")).append(")");
+            }
+            plan = plan.get("inputStage", Document.class);
+        }
+        return summary.toString();
+    }
+
+    // aggregate explain nests the query planner inside the first pipeline stage
+    @SuppressWarnings("unchecked")
+    private static Document findWinningPlan(Document document) {
+        var queryPlanner = document.get("queryPlanner", Document.class);
+        if (queryPlanner != null) {
+            return queryPlanner.get("winningPlan", Document.class);
+        }
+        for (var value : document.values()) {
+            Document found = null;
+            if (value instanceof Document) {
+                found = findWinningPlan((Document) value);
+            } else if (value instanceof List) {
+                for (var element : (List<Object>) value) {
+                    if (element instanceof Document && (found = findWinningPlan((Document) element)) != null) {
+                        break;
+                    }
+                }
+            }
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
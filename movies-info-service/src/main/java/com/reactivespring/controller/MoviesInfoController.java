@@ -1,72 +1,195 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.broadcast.MovieInfoChangeStream;
+import com.reactivespring.common.codec.CodecConfig;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.domain.MovieInfoDelta;
+import com.reactivespring.domain.MovieInfoEvent;
 import com.reactivespring.service.MoviesInfoService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
 import javax.validation.Valid;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/v1")
 @Slf4j
 public class MoviesInfoController {
 
+    // movieInfoId to pass as after= for the next page, sent while a json page came back full
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+
     private MoviesInfoService movieInfoService;
 
-    // emit data on post movie info
-    // subscribe data when get movie info is called
-    Sinks.Many<MovieInfo> moviesInfoSink = Sinks.many().replay().latest();
+    // every insert, update and delete on the movieInfo collection
+    private MovieInfoChangeStream movieInfoChangeStream;
+
+    @Value("${movieInfo.page.defaultLimit:100}")
+    private int defaultPageSize;
+
+    @Value("${movieInfo.page.maxLimit:1000}")
+    private int maxPageSize;
 
-    public MoviesInfoController(MoviesInfoService movieInfoService) {
+    // clients may reuse a movie info this long without asking, after that they revalidate with the ETag
+    @Value("${movieInfo.cache.maxAge:PT0S}")
+    private Duration cacheMaxAge;
+
+    public MoviesInfoController(MoviesInfoService movieInfoService, MovieInfoChangeStream movieInfoChangeStream) {
         this.movieInfoService = movieInfoService;
+        this.movieInfoChangeStream = movieInfoChangeStream;
     }
 
-    @GetMapping("/movieInfos") // if response status not defined it is 200
-    public Flux<MovieInfo> getAllMovieInfos(@RequestParam(value = "year", required = false) Integer year) {
+    /*
+        GET /v1/movieInfos?limit=100&after=<movieInfoId of the last item of previous page>
+        a json (or Smile) answer is one page, movieInfo.page.defaultLimit (100) items when limit is not given
+        X-Next-Cursor header carries the after= value of the next page, it is missing on the last page
+        with Accept: application/x-ndjson movie infos are streamed one per line, without default limit
+        Accept: application/x-jackson-smile answers in binary Smile instead of json (movies-service does that)
+        fields=name,year returns only the listed fields (plus movieInfoId), same for GET /v1/movieInfos/{id}
+     */
+    @GetMapping(value = "/movieInfos", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE, CodecConfig.APPLICATION_SMILE_VALUE})  // if response status not defined it is 200
+    public Mono<ResponseEntity<Flux<MovieInfo>>> getAllMovieInfos(@RequestParam(value = "year", required = false) Integer year,
+                                                                  @RequestParam(value = "after", required = false) String after,
+                                                                  @RequestParam(value = "limit", required = false) Integer limit,
+                                                                  @RequestParam(value = "fields", required = false) List<String> fields,
+                                                                  ServerWebExchange exchange) {
         log.info("godina je: " + year);
-        if (year != null) {
-            return movieInfoService.getMovieInfoByYear(year);
+        var streaming = exchange.getRequest().getHeaders().getAccept().contains(MediaType.APPLICATION_NDJSON);
+        var pageSize = pageSize(limit, streaming);
+        var movieInfos = movieInfoService.getMovieInfos(year, after, pageSize, fields);
+        if (streaming) {
+            // headers are gone before the last line, the client continues from the id of the last line it got
+            return Mono.just(ResponseEntity.ok().body(movieInfos));
+        }
+
+        // the page is bounded, so it can be collected to know whether it came back full
+        return movieInfos.collectList()
+                .map(page -> {
+                    var response = ResponseEntity.ok();
+                    if (page.size() == pageSize) {
+                        response.header(NEXT_CURSOR, page.get(page.size() - 1).getMovieInfoId());
+                    }
+                    return response.body(Flux.fromIterable(page));
+                });
+    }
+
+    /*
+        GET /v1/movieInfos?since=<token>&limit=100&after=<cursor of the previous page>
+        movie infos changed and ids deleted since the token, one page of at most limit items (default as above)
+        while there are more the page carries a cursor for after=, the last one carries the next token instead
+        first sync with since=0, an expired token answers 410 and the client starts again from 0
+     */
+    @GetMapping(value = "/movieInfos", params = "since")
+    public Mono<MovieInfoDelta> getMovieInfoDelta(@RequestParam("since") String since,
+                                                  @RequestParam(value = "after", required = false) String after,
+                                                  @RequestParam(value = "limit", required = false) Integer limit) {
+        return movieInfoService.getMovieInfoDelta(since, after, pageSize(limit, false));
+    }
+
+    private Integer pageSize(Integer limit, boolean streaming) {
+        if (limit == null) {
+            // a json array is buffered as a whole, so it always gets a page size
+            return streaming ? null : defaultPageSize;
         }
-        return movieInfoService.getAllMovieInfos().log();
+        return Math.max(1, Math.min(limit, maxPageSize));
     }
 
     @GetMapping("movieInfos/{id}")
-    public Mono<ResponseEntity<MovieInfo>> getMovieInfoById(@PathVariable String id) {
-        return movieInfoService.getMovieInfoById(id)
+    public Mono<ResponseEntity<MovieInfo>> getMovieInfoById(@PathVariable String id,
+                                                            @RequestParam(value = "fields", required = false) List<String> fields) {
+        // ResponseEntityResultHandler answers If-None-Match / If-Modified-Since with 304 before the body is written
+        return movieInfoService.getMovieInfoById(id, fields)
                 .map(movieInfo -> {
-                    return ResponseEntity.ok().body(movieInfo);
+                    var response = ResponseEntity.ok()
+                            .eTag(eTag(movieInfo, fields))
+                            .cacheControl(CacheControl.maxAge(cacheMaxAge).mustRevalidate())
+                            .varyBy(HttpHeaders.ACCEPT); // same ETag is sent as json or Smile
+                    if (movieInfo.getLastModified() != null) {
+                        response.lastModified(movieInfo.getLastModified());
+                    }
+                    return response.body(movieInfo);
                 })
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build())) // if movieinfo not found return 404
                 .log();
     }
 
+    // version changes on every write, documents saved before versioning fall back to a content hash
+    private String eTag(MovieInfo movieInfo, List<String> fields) {
+        var projection = fields == null ? "" : String.join(",", fields);
+        var content = movieInfo.getVersion() != null
+                ? movieInfo.getMovieInfoId() + ":" + movieInfo.getVersion() + ":" + projection
+                : movieInfo.toString();
+        return "\"" + DigestUtils.md5DigestAsHex(content.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /*
+        server sent events, event name is insert, update or delete (data is then only the movieInfoId)
+        event id is the change stream resume token, a client reconnecting with Last-Event-ID continues after it
+        snapshot=true first sends every existing movie info (event snapshot), then snapshot-end and then live changes
+        snapshot-end has the cluster time the snapshot was read at as its id, it works as Last-Event-ID too
+        reset means changes were lost (Last-Event-ID too old, or the change stream fell behind), sync again
+     */
     @GetMapping(value = "movieInfos/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<MovieInfo> getMovieInfoById() {
+    public Flux<ServerSentEvent<MovieInfo>> getMovieInfoById(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                                            @RequestParam(value = "snapshot", defaultValue = "false") boolean snapshot) {
         // ataching subscriber to a sink
-        return moviesInfoSink.asFlux();
+        return movieInfoChangeStream.subscribe(lastEventId, snapshot)
+                .map(event -> ServerSentEvent.builder(event.getMovieInfo() != null ? event.getMovieInfo() : deletedMovieInfo(event))
+                        .id(event.getResumeToken())
+                        .event(event.getType())
+                        .build());
+    }
+
+    private MovieInfo deletedMovieInfo(MovieInfoEvent event) {
+        var movieInfo = new MovieInfo();
+        movieInfo.setMovieInfoId(event.getMovieInfoId());
+        return movieInfo;
     }
 
     @PostMapping("/movieInfos")
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<MovieInfo> addMovieInfo(@RequestBody @Valid MovieInfo movieInfo) {
 
-        // when movie is added publish it to the sink
+        // when movie is added publish it to the sink (change stream does it when enabled)
         return movieInfoService.addMovieInfo(movieInfo)
                 .doOnNext(savedInfo -> {
-                    moviesInfoSink.tryEmitNext(savedInfo);
+                    movieInfoChangeStream.publishLocal(List.of(MovieInfoEvent.insert(savedInfo)));
                 });
     }
 
+    /*
+        POST /v1/movieInfos/bulk with one movie info json per line (application/x-ndjson)
+        response streams one MovieInfoBulkResult per record while the body is still being read
+     */
+    @PostMapping(value = "/movieInfos/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(ServerWebExchange exchange) {
+        // raw body, lines are parsed one by one so a malformed line gets its own result
+        return movieInfoService.bulkAddMovieInfos(exchange.getRequest().getBody(),
+                savedInfos -> movieInfoChangeStream.publishLocal(savedInfos.stream()
+                        .map(MovieInfoEvent::insert)
+                        .collect(Collectors.toList())));
+    }
+
     @PutMapping("movieInfos/{id}")
     public Mono<ResponseEntity<MovieInfo>> updateMovieInfo(@RequestBody MovieInfo updatedMovieInfo, @PathVariable String id) {
         return movieInfoService.updateMovieInfo(updatedMovieInfo, id)
+                .doOnNext(movieInfo -> movieInfoChangeStream.publishLocal(List.of(MovieInfoEvent.update(movieInfo))))
                 .map(movieInfo -> {
                     return ResponseEntity.ok().body(movieInfo);
                 })
@@ -74,9 +197,20 @@ public class MoviesInfoController {
                 .log();
     }
 
+    // only fields present in the body are changed, send version to update only if nobody changed it meanwhile
+    @PatchMapping("movieInfos/{id}")
+    public Mono<ResponseEntity<MovieInfo>> patchMovieInfo(@RequestBody MovieInfo patchMovieInfo, @PathVariable String id) {
+        return movieInfoService.patchMovieInfo(patchMovieInfo, id)
+                .doOnNext(movieInfo -> movieInfoChangeStream.publishLocal(List.of(MovieInfoEvent.update(movieInfo))))
+                .map(movieInfo -> ResponseEntity.ok().body(movieInfo))
+                .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()))
+                .log();
+    }
+
     @DeleteMapping("/movieInfos/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public Mono<Void> deleteMovieInfo(@PathVariable String id) {
-        return movieInfoService.deleteById(id);
+        return movieInfoService.deleteById(id)
+                .then(Mono.fromRunnable(() -> movieInfoChangeStream.publishLocal(List.of(MovieInfoEvent.delete(id)))));
     }
 }
@@ -1,14 +1,20 @@
 package com.reactivespring.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -16,15 +22,33 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document
+@JsonInclude(JsonInclude.Include.NON_NULL) // fields left out of a projection are not sent as nulls
+@CompoundIndexes({
+        // year filter + keyset paging on _id, the same index also serves plain findByYear
+        @CompoundIndex(name = "year_id", def = "{'year': 1, '_id': 1}"),
+        // ?since= delta syncs page through the changes in (lastModified, _id) order
+        @CompoundIndex(name = "lastModified_id", def = "{'lastModified': 1, '_id': 1}")
+})
 public class MovieInfo {
 
     @Id
     private String movieInfoId;
     @NotBlank(message = "movieInfo.name must be present")
+    @Indexed(name = "name")
     private String name;
     @NotNull
     @Positive(message = "movieInfo.year must be a Positive value")
     private Integer year;
+    @Indexed(name = "cast") // multikey index, one entry per actor
     private List<@NotBlank(message = "movieInfo.cast must be present") String> cast;
     private LocalDate release_date;
+    // bumped on every write, send it back on update to fail with 409 instead of overwriting someone else's change
+    @Version
+    private Long version;
+    // set on every write, ?since= delta syncs read it through the lastModified_id index
+    private Instant lastModified;
+
+    public MovieInfo(String movieInfoId, String name, Integer year, List<String> cast, LocalDate release_date) {
+        this(movieInfoId, name, year, cast, release_date, null, null);
+    }
 }
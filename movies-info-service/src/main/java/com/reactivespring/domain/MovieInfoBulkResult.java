@@ -0,0 +1,17 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieInfoBulkResult {
+
+    // one line of the bulk response, index is the position of the record in the request body
+    private Long index;
+    private String movieInfoId;
+    private Integer status;
+    private String error;
+}
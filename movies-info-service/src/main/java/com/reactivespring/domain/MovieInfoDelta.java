@@ -0,0 +1,22 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieInfoDelta {
+
+    // inserted or updated since the token
+    private List<MovieInfo> changed;
+    // movieInfoIds deleted since the token
+    private List<String> deleted;
+    // pass as since= on the next sync, only on the last page
+    private String token;
+    // pass as after= with the same since= for the next page, null on the last page
+    private String cursor;
+}
@@ -0,0 +1,54 @@
+package com.reactivespring.domain;
+
+import com.reactivespring.exception.MovieInfoSyncTokenException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/*
+    position inside a paged ?since= delta, sent to clients as an opaque string
+    - token is fixed when the first page is read, so changes made while the client pages are sent again next sync
+    - changed movie infos are paged first, then the deletes, both in (time, movieInfoId) order
+    - time and movieInfoId are the sort key of the last item of the previous page, null at the start of a phase
+ */
+@Data
+@AllArgsConstructor
+public class MovieInfoDeltaCursor {
+
+    private long token;
+    private boolean deletes;
+    private Instant time;
+    private String movieInfoId;
+
+    public static MovieInfoDeltaCursor start(Instant token) {
+        return new MovieInfoDeltaCursor(token.toEpochMilli(), false, null, null);
+    }
+
+    public MovieInfoDeltaCursor after(Instant time, String movieInfoId) {
+        return new MovieInfoDeltaCursor(token, deletes, time, movieInfoId);
+    }
+
+    public MovieInfoDeltaCursor startDeletes() {
+        return new MovieInfoDeltaCursor(token, true, null, null);
+    }
+
+    public String encode() {
+        var value = token + "|" + (deletes ? "d" : "c") + "|" + (time != null ? time.toEpochMilli() : "")
+                + "|" + (movieInfoId != null ? movieInfoId : "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static MovieInfoDeltaCursor decode(String cursor) {
+        try {
+            var parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 4);
+            var time = parts[2].isEmpty() ? null : Instant.ofEpochMilli(Long.parseLong(parts[2]));
+            var movieInfoId = parts[3].isEmpty() ? null : parts[3];
+            return new MovieInfoDeltaCursor(Long.parseLong(parts[0]), "d".equals(parts[1]), time, movieInfoId);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new MovieInfoSyncTokenException("Invalid movie info delta cursor: " + cursor, 400);
+        }
+    }
+}
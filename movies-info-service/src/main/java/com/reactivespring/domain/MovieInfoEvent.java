@@ -0,0 +1,56 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.BsonTimestamp;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieInfoEvent {
+
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+    // snapshot=true subscriptions: existing movie infos, then one snapshot-end, then live changes
+    public static final String SNAPSHOT = "snapshot";
+    public static final String SNAPSHOT_END = "snapshot-end";
+    // changes were lost (the change stream history the stream should continue from is gone), clients resync
+    public static final String RESET = "reset";
+
+    // insert, update, delete, snapshot, snapshot-end or reset
+    private String type;
+    private String movieInfoId;
+    // document after the change, null for delete
+    private MovieInfo movieInfo;
+    // change stream resume token (json), sent to clients as the SSE id - null for events published without change streams
+    private String resumeToken;
+    // cluster time of the change, a subscriber catching up on its own change stream hands over to the shared one at it
+    // null for events published without change streams
+    private BsonTimestamp clusterTime;
+
+    public static MovieInfoEvent insert(MovieInfo movieInfo) {
+        return new MovieInfoEvent(INSERT, movieInfo.getMovieInfoId(), movieInfo, null, null);
+    }
+
+    public static MovieInfoEvent update(MovieInfo movieInfo) {
+        return new MovieInfoEvent(UPDATE, movieInfo.getMovieInfoId(), movieInfo, null, null);
+    }
+
+    public static MovieInfoEvent delete(String movieInfoId) {
+        return new MovieInfoEvent(DELETE, movieInfoId, null, null, null);
+    }
+
+    public static MovieInfoEvent snapshot(MovieInfo movieInfo) {
+        return new MovieInfoEvent(SNAPSHOT, movieInfo.getMovieInfoId(), movieInfo, null, null);
+    }
+
+    public static MovieInfoEvent snapshotEnd(String resumeToken) {
+        return new MovieInfoEvent(SNAPSHOT_END, null, null, resumeToken, null);
+    }
+
+    public static MovieInfoEvent reset() {
+        return new MovieInfoEvent(RESET, null, null, null, null);
+    }
+}
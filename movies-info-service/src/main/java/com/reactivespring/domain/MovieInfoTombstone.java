@@ -0,0 +1,31 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// left behind by a delete so ?since= syncs can tell clients what to remove
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document
+// keyset paging of ?since= deletes, the ttl index below can't be compound
+@CompoundIndex(name = "deletedAt_id", def = "{'deletedAt': 1, '_id': 1}")
+public class MovieInfoTombstone {
+
+    // keep in sync with expireAfter below, older sync tokens can not be served anymore
+    public static final Duration RETENTION = Duration.ofDays(30);
+
+    @Id
+    private String movieInfoId;
+    // ttl index, mongo removes tombstones after the retention
+    @Indexed(name = "deletedAt", expireAfter = "30d")
+    private Instant deletedAt;
+}
@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class MovieInfoFieldsException extends RuntimeException{
+    private String message;
+
+    public MovieInfoFieldsException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class MovieInfoResumeTokenException extends RuntimeException{
+    private String message;
+
+    public MovieInfoResumeTokenException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
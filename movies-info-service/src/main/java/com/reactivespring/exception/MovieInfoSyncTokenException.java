@@ -0,0 +1,16 @@
+package com.reactivespring.exception;
+
+public class MovieInfoSyncTokenException extends RuntimeException{
+    private String message;
+    private Integer statusCode;
+
+    public MovieInfoSyncTokenException(String message, Integer statusCode) {
+        super(message);
+        this.message = message;
+        this.statusCode = statusCode;
+    }
+
+    public Integer getStatusCode() {
+        return statusCode;
+    }
+}
@@ -1,5 +1,10 @@
 package com.reactivespring.exceptionhanler;
 
+import com.reactivespring.exception.MovieInfoConflictException;
+import com.reactivespring.exception.MovieInfoFieldsException;
+import com.reactivespring.exception.MovieInfoResumeTokenException;
+import com.reactivespring.exception.MovieInfoStreamLimitException;
+import com.reactivespring.exception.MovieInfoSyncTokenException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
 import org.springframework.http.HttpStatus;
@@ -26,4 +31,34 @@ public class GlobarErrorHandler {
 
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
     }
+
+    @ExceptionHandler(MovieInfoFieldsException.class)
+    public ResponseEntity<String> handleMovieInfoFieldsException(MovieInfoFieldsException ex) {
+        log.error("Exception Caught in handleMovieInfoFieldsException: {} ", ex.getMessage(), ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoConflictException.class)
+    public ResponseEntity<String> handleMovieInfoConflictException(MovieInfoConflictException ex) {
+        log.error("Exception Caught in handleMovieInfoConflictException: {} ", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoResumeTokenException.class)
+    public ResponseEntity<String> handleMovieInfoResumeTokenException(MovieInfoResumeTokenException ex) {
+        log.error("Exception Caught in handleMovieInfoResumeTokenException: {} ", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoSyncTokenException.class)
+    public ResponseEntity<String> handleMovieInfoSyncTokenException(MovieInfoSyncTokenException ex) {
+        log.error("Exception Caught in handleMovieInfoSyncTokenException: {} ", ex.getMessage());
+        return ResponseEntity.status(ex.getStatusCode()).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoStreamLimitException.class)
+    public ResponseEntity<String> handleMovieInfoStreamLimitException(MovieInfoStreamLimitException ex) {
+        log.error("Exception Caught in handleMovieInfoStreamLimitException: {} ", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ex.getMessage());
+    }
 }
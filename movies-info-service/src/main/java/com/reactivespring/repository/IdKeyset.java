@@ -0,0 +1,29 @@
+package com.reactivespring.repository;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/*
+    "after this id" for keyset paging on _id when a collection mixes client chosen string ids and ObjectIds
+    $gt only matches values of the same BSON type, but sort orders by type first: every string before every ObjectId
+    - after an ObjectId only larger ObjectIds follow, $gt is enough
+    - after a string come larger strings and then all ObjectIds
+    a 24 hex digit id is an ObjectId, Spring stores and queries it as one
+ */
+final class IdKeyset {
+
+    // BSON type number of ObjectId
+    private static final int OBJECT_ID = 7;
+
+    private IdKeyset() {
+    }
+
+    static Criteria after(String idField, String afterId) {
+        if (ObjectId.isValid(afterId)) {
+            return Criteria.where(idField).gt(afterId);
+        }
+        return new Criteria().orOperator(
+                Criteria.where(idField).gt(afterId),
+                Criteria.where(idField).type(OBJECT_ID));
+    }
+}
@@ -0,0 +1,34 @@
+package com.reactivespring.repository;
+
+import com.mongodb.WriteError;
+import com.reactivespring.domain.MovieInfo;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public interface MovieInfoRepositoryCustom {
+
+    // keyset pagination - movie infos ordered by id, starting after the given id (null for the first page)
+    // limit null means no limit, results are streamed from the mongo cursor
+    // fields are pushed down to mongo as a projection, empty list means the whole document
+    Flux<MovieInfo> findMovieInfos(Integer year, String afterMovieInfoId, Integer limit, List<String> fields);
+
+    // keyset pagination - movie infos modified at or after since in (lastModified, movieInfoId) order,
+    // starting after the given position (both null for the first page)
+    Flux<MovieInfo> findChangedSince(Instant since, Instant afterLastModified, String afterMovieInfoId, int limit);
+
+    Mono<MovieInfo> findMovieInfoById(String movieInfoId, List<String> fields);
+
+    // single findAndModify returning the document after the update, version is incremented
+    // expectedVersion null updates whatever version is stored, empty when nothing matched
+    Mono<MovieInfo> updateMovieInfo(String movieInfoId, Update update, Long expectedVersion);
+
+    // one unordered insertMany, a failing document does not stop the rest of the batch
+    // returns the write error of every failed position in the list, empty map when all were inserted
+    // raw driver insert - no Spring Data lifecycle events or auditing, ids, version and lastModified are set here
+    Mono<Map<Integer, WriteError>> insertUnordered(List<MovieInfo> movieInfos);
+}
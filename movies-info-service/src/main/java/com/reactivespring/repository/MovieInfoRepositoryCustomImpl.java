@@ -0,0 +1,109 @@
+package com.reactivespring.repository;
+
+import com.mongodb.WriteError;
+import com.reactivespring.common.bulk.UnorderedInsert;
+import com.reactivespring.domain.MovieInfo;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+public class MovieInfoRepositoryCustomImpl implements MovieInfoRepositoryCustom {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    // documents fetched from mongo per getMore, memory stays flat no matter how big the collection is
+    @Value("${movieInfo.query.cursorBatchSize:100}")
+    private int cursorBatchSize;
+
+    public MovieInfoRepositoryCustomImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public Flux<MovieInfo> findMovieInfos(Integer year, String afterMovieInfoId, Integer limit, List<String> fields) {
+        var query = projection(new Query(), fields)
+                .with(Sort.by(Sort.Direction.ASC, "movieInfoId"))
+                .cursorBatchSize(cursorBatchSize);
+
+        if (year != null) {
+            query.addCriteria(Criteria.where("year").is(year));
+        }
+        if (afterMovieInfoId != null) {
+            // movieInfoId is _id, so this is an index range scan and not skip()
+            query.addCriteria(IdKeyset.after("movieInfoId", afterMovieInfoId));
+        }
+        if (limit != null) {
+            query.limit(limit);
+        }
+        return reactiveMongoTemplate.find(query, MovieInfo.class);
+    }
+
+    @Override
+    public Flux<MovieInfo> findChangedSince(Instant since, Instant afterLastModified, String afterMovieInfoId, int limit) {
+        // same order as the lastModified_id index, so mongo reads exactly one page of it
+        var query = new Query()
+                .with(Sort.by(Sort.Direction.ASC, "lastModified", "movieInfoId"))
+                .limit(limit)
+                .cursorBatchSize(cursorBatchSize);
+        if (afterLastModified == null) {
+            query.addCriteria(Criteria.where("lastModified").gte(since));
+        } else {
+            query.addCriteria(new Criteria().orOperator(
+                    Criteria.where("lastModified").gt(afterLastModified),
+                    new Criteria().andOperator(
+                            Criteria.where("lastModified").is(afterLastModified),
+                            IdKeyset.after("movieInfoId", afterMovieInfoId))));
+        }
+        return reactiveMongoTemplate.find(query, MovieInfo.class);
+    }
+
+    @Override
+    public Mono<MovieInfo> findMovieInfoById(String movieInfoId, List<String> fields) {
+        var query = projection(Query.query(Criteria.where("movieInfoId").is(movieInfoId)), fields);
+        return reactiveMongoTemplate.findOne(query, MovieInfo.class);
+    }
+
+    @Override
+    public Mono<MovieInfo> updateMovieInfo(String movieInfoId, Update update, Long expectedVersion) {
+        var criteria = Criteria.where("movieInfoId").is(movieInfoId);
+        if (expectedVersion != null) {
+            criteria = criteria.and("version").is(expectedVersion);
+        }
+        return reactiveMongoTemplate.findAndModify(Query.query(criteria), update.inc("version", 1),
+                FindAndModifyOptions.options().returnNew(true), MovieInfo.class);
+    }
+
+    @Override
+    public Mono<Map<Integer, WriteError>> insertUnordered(List<MovieInfo> movieInfos) {
+        var lastModified = Instant.now();
+        movieInfos.forEach(movieInfo -> {
+            // ids are assigned up front so every record of the report has one, hex string is stored as ObjectId like save() does
+            if (movieInfo.getMovieInfoId() == null) {
+                movieInfo.setMovieInfoId(new ObjectId().toHexString());
+            }
+            // same initial version save() would give it, no lifecycle event or auditing does it for us here
+            movieInfo.setVersion(0L);
+            movieInfo.setLastModified(lastModified);
+        });
+        return UnorderedInsert.insertUnordered(reactiveMongoTemplate, MovieInfo.class, movieInfos);
+    }
+
+    // only included fields are read from disk, sent over the wire and decoded, _id always comes back
+    private Query projection(Query query, List<String> fields) {
+        if (fields != null) {
+            fields.forEach(field -> query.fields().include(field));
+        }
+        return query;
+    }
+}
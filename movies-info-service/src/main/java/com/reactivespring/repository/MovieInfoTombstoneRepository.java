@@ -0,0 +1,7 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.MovieInfoTombstone;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+public interface MovieInfoTombstoneRepository extends ReactiveMongoRepository<MovieInfoTombstone, String>, MovieInfoTombstoneRepositoryCustom {
+}
@@ -0,0 +1,13 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.MovieInfoTombstone;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+
+public interface MovieInfoTombstoneRepositoryCustom {
+
+    // keyset pagination - tombstones deleted at or after since in (deletedAt, movieInfoId) order,
+    // starting after the given position (both null for the first page)
+    Flux<MovieInfoTombstone> findDeletedSince(Instant since, Instant afterDeletedAt, String afterMovieInfoId, int limit);
+}
@@ -0,0 +1,37 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.MovieInfoTombstone;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+
+public class MovieInfoTombstoneRepositoryCustomImpl implements MovieInfoTombstoneRepositoryCustom {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public MovieInfoTombstoneRepositoryCustomImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public Flux<MovieInfoTombstone> findDeletedSince(Instant since, Instant afterDeletedAt, String afterMovieInfoId, int limit) {
+        // same order as the deletedAt_id index, so mongo reads exactly one page of it
+        var query = new Query()
+                .with(Sort.by(Sort.Direction.ASC, "deletedAt", "movieInfoId"))
+                .limit(limit);
+        if (afterDeletedAt == null) {
+            query.addCriteria(Criteria.where("deletedAt").gte(since));
+        } else {
+            query.addCriteria(new Criteria().orOperator(
+                    Criteria.where("deletedAt").gt(afterDeletedAt),
+                    new Criteria().andOperator(
+                            Criteria.where("deletedAt").is(afterDeletedAt),
+                            IdKeyset.after("movieInfoId", afterMovieInfoId))));
+        }
+        return reactiveMongoTemplate.find(query, MovieInfoTombstone.class);
+    }
+}
@@ -1,49 +1,225 @@
 package com.reactivespring.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.common.bulk.BulkIngestion;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.domain.MovieInfoDelta;
+import com.reactivespring.domain.MovieInfoDeltaCursor;
+import com.reactivespring.domain.MovieInfoTombstone;
+import com.reactivespring.exception.MovieInfoConflictException;
+import com.reactivespring.exception.MovieInfoFieldsException;
+import com.reactivespring.exception.MovieInfoSyncTokenException;
 import com.reactivespring.repository.MovieInfoRepository;
+import com.reactivespring.repository.MovieInfoTombstoneRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.validation.Validator;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
 @Service
 public class MoviesInfoService {
 
+    // fields= values accepted on reads, movieInfoId is always returned
+    public static final Set<String> PROJECTABLE_FIELDS = Set.of("movieInfoId", "name", "year", "cast", "release_date", "version", "lastModified");
+
     private MovieInfoRepository movieInfoRepository;
 
-    public MoviesInfoService(MovieInfoRepository movieInfoRepository) {
+    private MovieInfoTombstoneRepository movieInfoTombstoneRepository;
+
+    // NDJSON bulk inserts - line parsing, validation and unordered insertMany batches
+    private BulkIngestion<MovieInfo, MovieInfoBulkResult> bulkIngestion;
+
+    // writes still in flight or made on a host with a slightly late clock can carry a lastModified a bit in the past
+    // sync tokens are moved back by this much, changes close to the token are sent twice rather than never
+    @Value("${movieInfo.sync.safetyLag:PT5S}")
+    private Duration syncSafetyLag;
+
+    public MoviesInfoService(MovieInfoRepository movieInfoRepository, MovieInfoTombstoneRepository movieInfoTombstoneRepository,
+                             Validator validator, ObjectMapper objectMapper,
+                             @Value("${movieInfo.bulk.batchSize:500}") int bulkBatchSize,
+                             @Value("${movieInfo.bulk.maxWait:PT0.2S}") Duration bulkMaxWait) {
         this.movieInfoRepository = movieInfoRepository;
+        this.movieInfoTombstoneRepository = movieInfoTombstoneRepository;
+        this.bulkIngestion = new BulkIngestion<>(objectMapper, validator, MovieInfo.class, MovieInfo::getMovieInfoId,
+                MovieInfoBulkResult::new, bulkBatchSize, bulkMaxWait);
     }
 
     public Mono<MovieInfo> addMovieInfo(MovieInfo movieInfo) {
+        movieInfo.setLastModified(Instant.now());
         return movieInfoRepository.save(movieInfo);
     }
 
-    public Flux<MovieInfo> getAllMovieInfos() {
-        return movieInfoRepository.findAll();
+    /*
+        one page of everything changed since the token - token is opaque for clients, "0" means from the beginning
+        changed movie infos come first, then the deleted ids, the next token comes with the last page
+        after is the cursor of the previous page, every page is one index range scan of at most limit items
+     */
+    public Mono<MovieInfoDelta> getMovieInfoDelta(String token, String after, int limit) {
+        var since = parseSyncToken(token);
+        var cursor = after == null
+                ? MovieInfoDeltaCursor.start(Instant.now().minus(syncSafetyLag))
+                : MovieInfoDeltaCursor.decode(after);
+
+        if (since == null) {
+            // first sync, client has nothing to delete - the whole collection in movieInfoId order
+            return movieInfoRepository.findMovieInfos(null, cursor.getMovieInfoId(), limit, List.of())
+                    .collectList()
+                    .map(changed -> changed.size() < limit
+                            ? new MovieInfoDelta(changed, List.of(), String.valueOf(cursor.getToken()), null)
+                            : new MovieInfoDelta(changed, List.of(), null,
+                                    cursor.after(null, changed.get(changed.size() - 1).getMovieInfoId()).encode()));
+        }
+        if (cursor.isDeletes()) {
+            return deletedPage(since, cursor, List.of(), limit);
+        }
+
+        return movieInfoRepository.findChangedSince(since, cursor.getTime(), cursor.getMovieInfoId(), limit)
+                .collectList()
+                .flatMap(changed -> {
+                    if (changed.size() == limit) {
+                        var last = changed.get(changed.size() - 1);
+                        return Mono.just(new MovieInfoDelta(changed, List.of(), null,
+                                cursor.after(last.getLastModified(), last.getMovieInfoId()).encode()));
+                    }
+                    // rest of the page is filled with deletes
+                    return deletedPage(since, cursor.startDeletes(), changed, limit - changed.size());
+                });
+    }
+
+    private Mono<MovieInfoDelta> deletedPage(Instant since, MovieInfoDeltaCursor cursor, List<MovieInfo> changed, int limit) {
+        if (limit == 0) {
+            return Mono.just(new MovieInfoDelta(changed, List.of(), null, cursor.encode()));
+        }
+        return movieInfoTombstoneRepository.findDeletedSince(since, cursor.getTime(), cursor.getMovieInfoId(), limit)
+                .collectList()
+                .flatMap(tombstones -> {
+                    var ids = tombstones.stream().map(MovieInfoTombstone::getMovieInfoId).collect(Collectors.toList());
+                    // inserted again after the delete (it is then a change itself), or the delete after the tombstone failed
+                    return movieInfoRepository.findAllById(ids)
+                            .map(MovieInfo::getMovieInfoId)
+                            .collect(Collectors.toSet())
+                            .map(existing -> {
+                                var deleted = ids.stream()
+                                        .filter(movieInfoId -> !existing.contains(movieInfoId))
+                                        .collect(Collectors.toList());
+                                if (tombstones.size() < limit) {
+                                    return new MovieInfoDelta(changed, deleted, String.valueOf(cursor.getToken()), null);
+                                }
+                                var last = tombstones.get(tombstones.size() - 1);
+                                return new MovieInfoDelta(changed, deleted, null,
+                                        cursor.after(last.getDeletedAt(), last.getMovieInfoId()).encode());
+                            });
+                });
     }
 
-    public Mono<MovieInfo> getMovieInfoById(String id) {
-        return movieInfoRepository.findById(id);
+    private Instant parseSyncToken(String token) {
+        long millis;
+        try {
+            millis = Long.parseLong(token.trim());
+        } catch (NumberFormatException ex) {
+            throw new MovieInfoSyncTokenException("Invalid movie info sync token: " + token, 400);
+        }
+        if (millis == 0) {
+            return null;
+        }
+        var since = Instant.ofEpochMilli(millis);
+        if (since.isBefore(Instant.now().minus(MovieInfoTombstone.RETENTION))) {
+            // deletes from that time are already forgotten
+            throw new MovieInfoSyncTokenException("Movie info sync token expired, sync again with since=0", 410);
+        }
+        return since;
     }
 
+    /*
+        NDJSON body of movie infos, one result per line - see BulkIngestion
+        inserted ones are handed to onSaved once per batch
+     */
+    public Flux<MovieInfoBulkResult> bulkAddMovieInfos(Flux<DataBuffer> body, Consumer<List<MovieInfo>> onSaved) {
+        return bulkIngestion.ingest(body, movieInfoRepository::insertUnordered,
+                saved -> Mono.fromRunnable(() -> onSaved.accept(saved)));
+    }
+
+    // limit null streams every movie info from the cursor
+    public Flux<MovieInfo> getMovieInfos(Integer year, String afterMovieInfoId, Integer limit, List<String> fields) {
+        return movieInfoRepository.findMovieInfos(year, afterMovieInfoId, limit, projection(fields));
+    }
+
+    public Mono<MovieInfo> getMovieInfoById(String id, List<String> fields) {
+        return movieInfoRepository.findMovieInfoById(id, projection(fields));
+    }
+
+    private List<String> projection(List<String> fields) {
+        if (fields == null) {
+            return List.of();
+        }
+        fields = fields.stream()
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toList());
+        var unknown = fields.stream()
+                .filter(field -> !PROJECTABLE_FIELDS.contains(field))
+                .collect(Collectors.toList());
+        if (!unknown.isEmpty()) {
+            throw new MovieInfoFieldsException("Unknown movieInfo fields: " + unknown + ", allowed are " + PROJECTABLE_FIELDS);
+        }
+        return fields;
+    }
+
+    // PUT - replaces every editable field, one findAndModify instead of findById + save
     public Mono<MovieInfo> updateMovieInfo(MovieInfo updateMovieInfo, String id) {
-        return movieInfoRepository.findById(id)
-                .flatMap(movieInfo -> { // whenever we call some operation that will give reactive type : Flux and Mono we use flatmap
-                    movieInfo.setCast(updateMovieInfo.getCast());
-                    movieInfo.setName(updateMovieInfo.getName());
-                    movieInfo.setYear(updateMovieInfo.getYear());
-                    movieInfo.setRelease_date(updateMovieInfo.getRelease_date());
-                    return movieInfoRepository.save(movieInfo);
-                });
+        var update = new Update()
+                .set("name", updateMovieInfo.getName())
+                .set("year", updateMovieInfo.getYear())
+                .set("cast", updateMovieInfo.getCast())
+                .set("release_date", updateMovieInfo.getRelease_date());
+        return update(id, update, updateMovieInfo.getVersion());
+    }
 
+    // PATCH - $set only for the fields present in the request
+    public Mono<MovieInfo> patchMovieInfo(MovieInfo patchMovieInfo, String id) {
+        var update = new Update();
+        if (patchMovieInfo.getName() != null) {
+            update.set("name", patchMovieInfo.getName());
+        }
+        if (patchMovieInfo.getYear() != null) {
+            update.set("year", patchMovieInfo.getYear());
+        }
+        if (patchMovieInfo.getCast() != null) {
+            update.set("cast", patchMovieInfo.getCast());
+        }
+        if (patchMovieInfo.getRelease_date() != null) {
+            update.set("release_date", patchMovieInfo.getRelease_date());
+        }
+        return update(id, update, patchMovieInfo.getVersion());
     }
 
-    public Mono<Void> deleteById(String id) {
-        return movieInfoRepository.deleteById(id);
+    private Mono<MovieInfo> update(String id, Update update, Long expectedVersion) {
+        return movieInfoRepository.updateMovieInfo(id, update.set("lastModified", Instant.now()), expectedVersion)
+                // nothing matched - either movie info does not exist (404) or somebody else updated it first (409)
+                // the extra lookup is done only on this path
+                .switchIfEmpty(Mono.defer(() -> expectedVersion == null ? Mono.empty() : movieInfoRepository.existsById(id)
+                        .flatMap(exists -> exists
+                                ? Mono.error(new MovieInfoConflictException("MovieInfo " + id + " was modified, expected version " + expectedVersion))
+                                : Mono.empty())));
     }
 
-    public Flux<MovieInfo> getMovieInfoByYear(Integer year) {
-        return movieInfoRepository.findByYear(year);
+    // tombstone first - a failed delete then leaves a tombstone of an existing movie info, which delta syncs skip,
+    // instead of a deleted one no delta sync ever hears about; nothing is written for an unknown id
+    public Mono<Void> deleteById(String id) {
+        return movieInfoRepository.existsById(id)
+                .filter(exists -> exists)
+                .flatMap(exists -> movieInfoTombstoneRepository.save(new MovieInfoTombstone(id, Instant.now())))
+                .flatMap(tombstone -> movieInfoRepository.deleteById(id));
     }
 }
@@ -1,20 +1,34 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.common.codec.CodecConfig;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoBulkResult;
+import com.reactivespring.domain.MovieInfoDelta;
+import com.reactivespring.domain.MovieInfoTombstone;
 import com.reactivespring.repository.MovieInfoRepository;
+import com.reactivespring.repository.MovieInfoTombstoneRepository;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,6 +42,9 @@ class MoviesInfoControllerTest {
     @Autowired
     MovieInfoRepository movieInfoRepository;
 
+    @Autowired
+    MovieInfoTombstoneRepository movieInfoTombstoneRepository;
+
     @Autowired
     WebTestClient webTestClient;
 
@@ -46,6 +63,7 @@ class MoviesInfoControllerTest {
     @AfterEach
     void tearDown() {
         movieInfoRepository.deleteAll().block();
+        movieInfoTombstoneRepository.deleteAll().block();
     }
 
     @Test
@@ -68,6 +86,79 @@ class MoviesInfoControllerTest {
                 });
     }
 
+    @Test
+    void bulkAddMovieInfos() {
+        var body = String.join("\n",
+                "{\"name\":\"Batman Returns\",\"year\":1992,\"cast\":[\"Michael Keaton\"],\"release_date\":\"1992-06-19\"}",
+                "{\"name\":\"\",\"year\":1995,\"cast\":[\"Val Kilmer\"],\"release_date\":\"1995-06-16\"}",
+                "{\"movieInfoId\":\"abc\",\"name\":\"Dark Knight Rises\",\"year\":2012,\"cast\":[\"Tom Hardt\"],\"release_date\":\"2012-07-20\"}",
+                "{\"name\":\"Batman Forever\",\"year\":1995,\"cast\":[\"Val Kilmer\"],\"release_date\":\"1995-06-16\"}") + "\n";
+
+        var results = webTestClient.post()
+                .uri(MOVIE_INFOS_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfoBulkResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .assertNext(result -> {
+                    assertEquals(0L, result.getIndex());
+                    assertEquals(201, result.getStatus());
+                    assertNotNull(result.getMovieInfoId());
+                })
+                .assertNext(result -> {
+                    assertEquals(400, result.getStatus());
+                    assertEquals("movieInfo.name must be present", result.getError());
+                })
+                .assertNext(result -> assertEquals(409, result.getStatus()))
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .verifyComplete();
+
+        // 3 from setUp and 2 new ones
+        StepVerifier.create(movieInfoRepository.count())
+                .expectNext(5L)
+                .verifyComplete();
+    }
+
+    @Test
+    void bulkAddMovieInfos_MalformedLine() {
+        var body = String.join("\n",
+                "{\"name\":\"Batman Returns\",\"year\":1992,\"cast\":[\"Michael Keaton\"],\"release_date\":\"1992-06-19\"}",
+                "{\"name\":\"Batman Forever\",\"year\":",
+                "{\"name\":\"Batman & Robin\",\"year\":1997,\"cast\":[\"George Clooney\"],\"release_date\":\"1997-06-20\"}") + "\n";
+
+        var results = webTestClient.post()
+                .uri(MOVIE_INFOS_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfoBulkResult.class)
+                .getResponseBody();
+
+        // the broken line gets its own result, the records around it are still inserted
+        StepVerifier.create(results)
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .assertNext(result -> {
+                    assertEquals(1L, result.getIndex());
+                    assertEquals(400, result.getStatus());
+                    assertTrue(result.getError().startsWith("Malformed json"));
+                })
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .verifyComplete();
+
+        StepVerifier.create(movieInfoRepository.count())
+                .expectNext(5L)
+                .verifyComplete();
+    }
+
     @Test
     void getAllMovieInfos() {
 
@@ -115,6 +206,384 @@ class MoviesInfoControllerTest {
                 .verify();
     }
 
+    @Test
+    void getAllMovieInfos_Paged() {
+        var firstPage = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?limit={limit}", 2)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(2)
+                .returnResult();
+
+        // next page starts after the last movie info of the previous page
+        var lastMovieInfoId = firstPage.getResponseBody().get(1).getMovieInfoId();
+        assertEquals(lastMovieInfoId, firstPage.getResponseHeaders().getFirst(MoviesInfoController.NEXT_CURSOR));
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?limit={limit}&after={after}", 2, lastMovieInfoId)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().doesNotExist(MoviesInfoController.NEXT_CURSOR)
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1)
+                .value(movieInfos -> assertNotEquals(lastMovieInfoId, movieInfos.get(0).getMovieInfoId()));
+    }
+
+    @Test
+    void getAllMovieInfos_PageBoundaryOnStringId() {
+        // strings sort before ObjectIds, the first page ends on "abc"
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?limit={limit}", 1)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().valueEquals(MoviesInfoController.NEXT_CURSOR, "abc");
+
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?limit={limit}&after={after}", 2, "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(2)
+                .value(movieInfos -> assertTrue(movieInfos.stream().noneMatch(movieInfo -> "abc".equals(movieInfo.getMovieInfoId()))));
+    }
+
+    @Test
+    void getAllMovieInfos_Ndjson() {
+        var moviesFlux = webTestClient.get()
+                .uri(MOVIE_INFOS_URL)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader()
+                .contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(MovieInfo.class)
+                .getResponseBody();
+
+        StepVerifier.create(moviesFlux)
+                .expectNextCount(3)
+                .verifyComplete();
+    }
+
+    @Test
+    void movieInfoStream_UpdateAndDelete() {
+        var events = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody()
+                .filter(event -> "abc".equals(event.data().getMovieInfoId()));
+
+        // changes made directly in mongo are streamed too
+        var patch = new MovieInfo();
+        patch.setName("Vratice se rode");
+
+        StepVerifier.create(events)
+                .then(() -> {
+                    webTestClient.patch().uri(MOVIE_INFOS_URL + "/{id}", "abc").bodyValue(patch).exchange().expectStatus().isOk();
+                    movieInfoRepository.deleteById("abc").block();
+                })
+                // the latest earlier event is replayed first
+                .thenConsumeWhile(event -> !"update".equals(event.event()))
+                .assertNext(event -> {
+                    assertEquals("Vratice se rode", event.data().getName());
+                    assertNotNull(event.id());
+                })
+                .assertNext(event -> {
+                    assertEquals("delete", event.event());
+                    assertNull(event.data().getName());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void movieInfoStream_Snapshot() {
+        var events = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream?snapshot=true")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .expectNextMatches(event -> "snapshot".equals(event.event()))
+                .expectNextMatches(event -> "snapshot".equals(event.event()))
+                .expectNextMatches(event -> "snapshot".equals(event.event()))
+                .expectNextMatches(event -> "snapshot-end".equals(event.event()))
+                .then(() -> movieInfoRepository.save(new MovieInfo(null, "After Snapshot", 2022, List.of("Actor"), LocalDate.parse("2022-01-01"))).block())
+                // only the change made after the snapshot, none of the snapshot documents again
+                .assertNext(event -> {
+                    assertEquals("insert", event.event());
+                    assertEquals("After Snapshot", event.data().getName());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void movieInfoStream_ResumeFromSnapshotEnd() {
+        var snapshotEndId = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream?snapshot=true")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody()
+                .filter(event -> "snapshot-end".equals(event.event()))
+                .map(ServerSentEvent::id)
+                .blockFirst(Duration.ofSeconds(10));
+        assertNotNull(snapshotEndId);
+
+        // client lost the connection right after the snapshot, the change was made meanwhile
+        movieInfoRepository.save(new MovieInfo(null, "After Snapshot End", 2022, List.of("Actor"), LocalDate.parse("2022-01-01"))).block();
+
+        var resumed = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream")
+                .header("Last-Event-ID", snapshotEndId)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(resumed)
+                .assertNext(event -> {
+                    assertEquals("insert", event.event());
+                    assertEquals("After Snapshot End", event.data().getName());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void movieInfoStream_ResumeFromLostHistory() {
+        // long before the oplog starts, the changes since then can't be streamed anymore
+        var resumed = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream")
+                .header("Last-Event-ID", "{\"clusterTime\": {\"$timestamp\": {\"t\": 1, \"i\": 1}}}")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(resumed)
+                .expectNextMatches(event -> "reset".equals(event.event()))
+                .then(() -> movieInfoRepository.save(new MovieInfo(null, "After Reset", 2022, List.of("Actor"), LocalDate.parse("2022-01-01"))).block())
+                // live changes still follow the reset
+                .assertNext(event -> {
+                    assertEquals("insert", event.event());
+                    assertEquals("After Reset", event.data().getName());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void movieInfoStream_ResumeFromLastEventId() {
+        var events = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        movieInfoRepository.save(new MovieInfo(null, "Resume X", 2020, List.of("Actor"), LocalDate.parse("2020-01-01"))).block();
+        movieInfoRepository.save(new MovieInfo(null, "Resume Y", 2021, List.of("Actor"), LocalDate.parse("2021-01-01"))).block();
+
+        // client saw X and then lost the connection
+        var lastEventId = events
+                .filter(event -> "insert".equals(event.event()) && "Resume X".equals(event.data().getName()))
+                .map(ServerSentEvent::id)
+                .blockFirst(Duration.ofSeconds(10));
+        assertNotNull(lastEventId);
+
+        var resumed = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/stream")
+                .header("Last-Event-ID", lastEventId)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(resumed)
+                .assertNext(event -> {
+                    assertEquals("insert", event.event());
+                    assertEquals("Resume Y", event.data().getName());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void getMovieInfoDelta() {
+        var firstSync = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?since={since}", "0")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(MovieInfoDelta.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(firstSync);
+        assertEquals(3, firstSync.getChanged().size());
+
+        var deletedId = firstSync.getChanged().stream()
+                .map(MovieInfo::getMovieInfoId)
+                .filter(id -> !"abc".equals(id))
+                .findFirst()
+                .orElseThrow();
+        var patch = new MovieInfo();
+        patch.setName("Vratice se rode");
+        webTestClient.patch().uri(MOVIE_INFOS_URL + "/{id}", "abc").bodyValue(patch).exchange().expectStatus().isOk();
+        webTestClient.delete().uri(MOVIE_INFOS_URL + "/{id}", deletedId).exchange().expectStatus().isNoContent();
+
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?since={since}", firstSync.getToken())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(MovieInfoDelta.class)
+                .consumeWith(result -> {
+                    var delta = result.getResponseBody();
+                    assertNotNull(delta);
+                    assertNotNull(delta.getToken());
+                    assertNull(delta.getCursor());
+                    // only what changed, the third movie info is not sent again
+                    assertEquals(1, delta.getChanged().size());
+                    assertEquals("Vratice se rode", delta.getChanged().get(0).getName());
+                    assertEquals(List.of(deletedId), delta.getDeleted());
+                });
+    }
+
+    @Test
+    void getMovieInfoDelta_Paged() {
+        var firstPage = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?since={since}&limit={limit}", "0", 2)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(MovieInfoDelta.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(firstPage);
+        assertEquals(2, firstPage.getChanged().size());
+        // token only with the last page
+        assertNull(firstPage.getToken());
+        assertNotNull(firstPage.getCursor());
+
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?since={since}&limit={limit}&after={after}", "0", 2, firstPage.getCursor())
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(MovieInfoDelta.class)
+                .consumeWith(result -> {
+                    var lastPage = result.getResponseBody();
+                    assertNotNull(lastPage);
+                    assertEquals(1, lastPage.getChanged().size());
+                    assertNotNull(lastPage.getToken());
+                    assertNull(lastPage.getCursor());
+                });
+    }
+
+    @Test
+    void getMovieInfoDelta_PageBoundaryOnStringId() {
+        // strings sort before ObjectIds, the first page ends on "abc"
+        var pages = syncAll("0", 1);
+
+        assertEquals(4, pages.size());
+        assertEquals("abc", pages.get(0).getChanged().get(0).getMovieInfoId());
+        var changedIds = pages.stream()
+                .flatMap(page -> page.getChanged().stream())
+                .map(MovieInfo::getMovieInfoId)
+                .collect(Collectors.toSet());
+        assertEquals(3, changedIds.size());
+    }
+
+    @Test
+    void getMovieInfoDelta_EqualTimesPageBoundaryOnStringId() {
+        var token = syncAll("0", 100).get(0).getToken();
+        // a bulk insert and deletes at the same instant, pages are then ordered by id only
+        movieInfoRepository.insertUnordered(List.of(
+                new MovieInfo("xyz", "Bulk 1", 2001, List.of("Actor"), LocalDate.parse("2001-01-01")),
+                new MovieInfo(null, "Bulk 2", 2002, List.of("Actor"), LocalDate.parse("2002-01-01")),
+                new MovieInfo(null, "Bulk 3", 2003, List.of("Actor"), LocalDate.parse("2003-01-01")))).block();
+        var deletedAt = Instant.now();
+        movieInfoTombstoneRepository.saveAll(List.of(
+                new MovieInfoTombstone("gone", deletedAt),
+                new MovieInfoTombstone(new ObjectId().toHexString(), deletedAt),
+                new MovieInfoTombstone(new ObjectId().toHexString(), deletedAt))).blockLast();
+
+        var pages = syncAll(token, 1);
+
+        assertEquals(List.of("Bulk 1", "Bulk 2", "Bulk 3"), pages.stream()
+                .flatMap(page -> page.getChanged().stream())
+                .map(MovieInfo::getName)
+                .sorted()
+                .collect(Collectors.toList()));
+        var deleted = pages.stream()
+                .flatMap(page -> page.getDeleted().stream())
+                .collect(Collectors.toList());
+        assertEquals(3, deleted.size());
+        assertEquals("gone", deleted.get(0));
+    }
+
+    // every page of one sync, the last one carries the token
+    private List<MovieInfoDelta> syncAll(String since, int limit) {
+        var pages = new ArrayList<MovieInfoDelta>();
+        String cursor = null;
+        do {
+            var uri = UriComponentsBuilder.fromUriString(MOVIE_INFOS_URL)
+                    .queryParam("since", since)
+                    .queryParam("limit", limit);
+            if (cursor != null) {
+                uri.queryParam("after", cursor);
+            }
+            var page = webTestClient.get()
+                    .uri(uri.build().toUri())
+                    .exchange()
+                    .expectStatus()
+                    .is2xxSuccessful()
+                    .expectBody(MovieInfoDelta.class)
+                    .returnResult()
+                    .getResponseBody();
+            assertNotNull(page);
+            pages.add(page);
+            cursor = page.getCursor();
+        } while (cursor != null && pages.size() < 20);
+        assertNotNull(pages.get(pages.size() - 1).getToken());
+        return pages;
+    }
+
+    @Test
+    void deleteUnknownMovieInfoLeavesNoTombstone() {
+        webTestClient.delete().uri(MOVIE_INFOS_URL + "/{id}", "def").exchange().expectStatus().isNoContent();
+
+        StepVerifier.create(movieInfoTombstoneRepository.count())
+                .expectNext(0L)
+                .verifyComplete();
+    }
+
+    @Test
+    void getMovieInfoDelta_ExpiredToken() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?since={since}", "1000")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.GONE);
+    }
+
     @Test
     void getAllMovieInfoByYear() {
         // pass request parameter
@@ -147,6 +616,132 @@ class MoviesInfoControllerTest {
                 });
     }
 
+    @Test
+    void getMovieInfoById_NotModified() {
+        var eTag = webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().exists("ETag")
+                .expectHeader().exists("Cache-Control")
+                .returnResult(MovieInfo.class)
+                .getResponseHeaders()
+                .getETag();
+
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .header("If-None-Match", eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectHeader().valueEquals("ETag", eTag)
+                .expectBody()
+                .isEmpty();
+
+        // a different projection is a different representation
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}?fields={fields}", "abc", "name")
+                .header("If-None-Match", eTag)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        var patch = new MovieInfo();
+        patch.setName("Vratice se rode");
+        webTestClient.patch()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        // every write bumps the version, so the old ETag no longer matches
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .header("If-None-Match", eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Vratice se rode");
+    }
+
+    @Test
+    void getMovieInfoById_Smile() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .accept(CodecConfig.APPLICATION_SMILE)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().contentType(CodecConfig.APPLICATION_SMILE)
+                .expectBody(MovieInfo.class)
+                .value(movieInfo -> {
+                    assertEquals("Dark Knight Rises", movieInfo.getName());
+                    assertEquals(LocalDate.parse("2012-07-20"), movieInfo.getRelease_date());
+                });
+
+        // json stays the default
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .exchange()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON);
+    }
+
+    @Test
+    void getAllMovieInfos_Smile() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL)
+                .accept(CodecConfig.APPLICATION_SMILE)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().contentType(CodecConfig.APPLICATION_SMILE)
+                .expectBodyList(MovieInfo.class)
+                .hasSize(3);
+    }
+
+    @Test
+    void getMovieInfoById_Fields() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}?fields={fields}", "abc", "name,year")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.movieInfoId").isEqualTo("abc")
+                .jsonPath("$.name").isEqualTo("Dark Knight Rises")
+                .jsonPath("$.year").isEqualTo(2012)
+                .jsonPath("$.cast").doesNotExist()
+                .jsonPath("$.release_date").doesNotExist();
+    }
+
+    @Test
+    void getAllMovieInfos_Fields() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?fields={fields}", "name")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(3)
+                .value(movieInfos -> movieInfos.forEach(movieInfo -> {
+                    assertNotNull(movieInfo.getName());
+                    assertNull(movieInfo.getYear());
+                    assertNull(movieInfo.getCast());
+                }));
+    }
+
+    @Test
+    void getAllMovieInfos_UnknownField() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "?fields={fields}", "name,budget")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
     @Test
     void getMovieInfoByIdMovieNameTest() {
         var movieInfoId = "abc";
@@ -183,6 +778,65 @@ class MoviesInfoControllerTest {
                 });
     }
 
+    @Test
+    void patchMovieInfo() {
+        var patch = new MovieInfo();
+        patch.setName("Vratice se rode");
+
+        webTestClient.patch()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(MovieInfo.class)
+                .consumeWith(movieInfoEntityExchangeResult -> {
+                    var patchedMovieInfo = movieInfoEntityExchangeResult.getResponseBody();
+                    assertNotNull(patchedMovieInfo);
+                    assertEquals("Vratice se rode", patchedMovieInfo.getName());
+                    // fields not in the patch are kept
+                    assertEquals(2012, patchedMovieInfo.getYear());
+                    assertEquals(List.of("Cristian Bale", "Tom Hardt"), patchedMovieInfo.getCast());
+                    assertEquals(1L, patchedMovieInfo.getVersion());
+                });
+    }
+
+    @Test
+    void patchMovieInfoVersionConflict() {
+        var patch = new MovieInfo();
+        patch.setYear(2013);
+        patch.setVersion(0L);
+
+        webTestClient.patch()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+
+        // same stale version again, the first patch already moved it to 1
+        webTestClient.patch()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    void patchMovieInfoNotFound() {
+        var patch = new MovieInfo();
+        patch.setName("Vratice se rode");
+        patch.setVersion(0L);
+
+        webTestClient.patch()
+                .uri(MOVIE_INFOS_URL + "/{id}", "def")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
     @Test
     void updateMovieInfoNotFound() {
         // given
@@ -197,4 +851,25 @@ class MoviesInfoControllerTest {
                 .expectStatus()
                 .isNotFound();
     }
+
+    @Test
+    void getMovieInfoByIdDeadlineExceeded() {
+        // caller has already given up, mongo is not queried at all
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .header("X-Request-Timeout", "0")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+    }
+
+    @Test
+    void getMovieInfoByIdWithinDeadline() {
+        webTestClient.get()
+                .uri(MOVIE_INFOS_URL + "/{id}", "abc")
+                .header("X-Request-Timeout", "5000")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful();
+    }
 }
\ No newline at end of file
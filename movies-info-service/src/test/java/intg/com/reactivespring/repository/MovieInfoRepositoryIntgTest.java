@@ -1,11 +1,16 @@
 package com.reactivespring.repository;
 
+import com.reactivespring.config.MovieInfoIndexInitializer;
 import com.reactivespring.domain.MovieInfo;
+import org.bson.Document;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.test.context.ActiveProfiles;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
@@ -15,15 +20,20 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 @DataMongoTest // scan application and look for repo classes and making it available in test case and set embedded mongo version in config
 @ActiveProfiles("test")
+@Import(MovieInfoIndexInitializer.class) // indexes are created at startup
 class MovieInfoRepositoryIntgTest {
 
     @Autowired
     MovieInfoRepository movieInfoRepository;
 
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
     @BeforeEach
     void setUp() {
         var movieinfos = List.of(
@@ -76,6 +86,58 @@ class MovieInfoRepositoryIntgTest {
                 .verifyComplete();
     }
 
+    @Test
+    void findByName() {
+        var moviesInfoFlux = movieInfoRepository.findByName("The Dark Knight").log();
+
+        StepVerifier.create(moviesInfoFlux)
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void findByCastContaining() {
+        var moviesInfoFlux = movieInfoRepository.findByCastContaining("Tom Hardt").log();
+
+        StepVerifier.create(moviesInfoFlux)
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void indexesCreated() {
+        var indexNames = reactiveMongoTemplate.indexOps(MovieInfo.class).getIndexInfo()
+                .map(IndexInfo::getName)
+                .collectList();
+
+        StepVerifier.create(indexNames)
+                .assertNext(names -> assertTrue(names.containsAll(List.of("year_id", "name", "cast")), names.toString()))
+                .verifyComplete();
+    }
+
+    @Test
+    void yearQueryUsesIndex() {
+        assertIndexScan(new Document("year", 2005));
+    }
+
+    @Test
+    void nameQueryUsesIndex() {
+        assertIndexScan(new Document("name", "The Dark Knight"));
+    }
+
+    @Test
+    void castQueryUsesIndex() {
+        assertIndexScan(new Document("cast", "Tom Hardt"));
+    }
+
+    private void assertIndexScan(Document filter) {
+        var explain = reactiveMongoTemplate.execute(MovieInfo.class, collection -> collection.find(filter).explain());
+
+        StepVerifier.create(explain)
+                .assertNext(plan -> assertTrue(plan.toJson().contains("IXSCAN"), plan.toJson()))
+                .verifyComplete();
+    }
+
     @Test
     void saveMovieInfo() {
         // given
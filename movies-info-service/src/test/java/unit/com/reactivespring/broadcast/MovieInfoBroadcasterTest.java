@@ -0,0 +1,179 @@
+package com.reactivespring.broadcast;
+
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieInfoEvent;
+import com.reactivespring.exception.MovieInfoStreamLimitException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MovieInfoBroadcasterTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private MovieInfoEvent movieInfo(int i) {
+        return MovieInfoEvent.insert(new MovieInfo("id" + i, "Movie " + i, 2000, List.of("Actor"), LocalDate.parse("2000-01-01")));
+    }
+
+    @Test
+    void concurrentEmitsAreNotLost() throws InterruptedException {
+        var broadcaster = new MovieInfoBroadcaster(10_000, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 10, meterRegistry);
+        var producers = 8;
+        var perProducer = 500;
+
+        var received = broadcaster.subscribe()
+                .take(producers * perProducer)
+                .count()
+                .toFuture();
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        var start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            var producer = p;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    broadcaster.emit(movieInfo(producer * perProducer + i));
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(producers * perProducer, received.join().intValue());
+        assertEquals(producers * perProducer, meterRegistry.get("movieinfo.broadcast.emitted").counter().count());
+    }
+
+    @Test
+    void slowSubscriberDoesNotStallOthers() {
+        var broadcaster = new MovieInfoBroadcaster(4, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 10, meterRegistry);
+
+        // never requests anything after the first item
+        StepVerifier.create(broadcaster.subscribe(), 1)
+                .then(() -> Flux.range(0, 20).map(this::movieInfo).subscribe(broadcaster::emit))
+                .expectNextCount(1)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        var fast = broadcaster.subscribe().take(10).collectList();
+        StepVerifier.create(fast)
+                .then(() -> Flux.range(20, 10).map(this::movieInfo).subscribe(broadcaster::emit))
+                .assertNext(movieInfos -> assertEquals(10, movieInfos.size()))
+                .verifyComplete();
+    }
+
+    @Test
+    void dropOldestKeepsNewestItems() {
+        var broadcaster = new MovieInfoBroadcaster(2, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 10, meterRegistry);
+
+        StepVerifier.create(broadcaster.subscribe(), 0)
+                .then(() -> Flux.range(0, 5).map(this::movieInfo).subscribe(broadcaster::emit))
+                .thenRequest(2)
+                .assertNext(movieInfo -> assertEquals("id3", movieInfo.getMovieInfoId()))
+                .assertNext(movieInfo -> assertEquals("id4", movieInfo.getMovieInfoId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(3, meterRegistry.get("movieinfo.broadcast.dropped").tag("reason", "overflow").counter().count());
+    }
+
+    @Test
+    void disconnectsSlowSubscriber() {
+        var broadcaster = new MovieInfoBroadcaster(2, MovieInfoBroadcaster.OverflowPolicy.DISCONNECT, 10, meterRegistry);
+
+        StepVerifier.create(broadcaster.subscribe(), 0)
+                .then(() -> Flux.range(0, 5).map(this::movieInfo).subscribe(broadcaster::emit))
+                .thenRequest(10)
+                .expectNextCount(2)
+                .verifyErrorMatches(Exceptions::isOverflow);
+
+        assertEquals(1, meterRegistry.get("movieinfo.broadcast.disconnected").counter().count());
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void subscriberLimit() {
+        var broadcaster = new MovieInfoBroadcaster(2, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 1, meterRegistry);
+
+        var first = broadcaster.subscribe().subscribe();
+
+        StepVerifier.create(broadcaster.subscribe())
+                .expectError(MovieInfoStreamLimitException.class)
+                .verify();
+
+        first.dispose();
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void catchUpComesFirstAndLiveIsBufferedMeanwhile() {
+        var broadcaster = new MovieInfoBroadcaster(2, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 10, meterRegistry);
+        var catchUp = Sinks.many().unicast().<MovieInfoEvent>onBackpressureBuffer();
+
+        StepVerifier.create(broadcaster.subscribe(catchUp.asFlux(), event -> !"id2".equals(event.getMovieInfoId())))
+                .then(() -> {
+                    // live while catching up - one waits in the merge, the buffer holds the other 2
+                    Flux.range(0, 3).map(this::movieInfo).subscribe(broadcaster::emit);
+                    catchUp.tryEmitNext(movieInfo(100));
+                    catchUp.tryEmitComplete();
+                })
+                .assertNext(event -> assertEquals("id100", event.getMovieInfoId()))
+                .assertNext(event -> assertEquals("id0", event.getMovieInfoId()))
+                // id2 filtered
+                .assertNext(event -> assertEquals("id1", event.getMovieInfoId()))
+                .then(() -> Flux.range(3, 1).map(this::movieInfo).subscribe(broadcaster::emit))
+                .assertNext(event -> assertEquals("id3", event.getMovieInfoId()))
+                .then(() -> assertEquals(1, broadcaster.subscriberCount()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void catchUpSubscriberIsDisconnectedWhenLiveOverflowsDuringSnapshot() {
+        // DROP_OLDEST would leave a gap the subscriber can't see, it is disconnected instead
+        var broadcaster = new MovieInfoBroadcaster(2, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 10, meterRegistry);
+        var snapshot = Sinks.many().unicast().<MovieInfoEvent>onBackpressureBuffer();
+
+        StepVerifier.create(broadcaster.subscribe(snapshot.asFlux(), event -> true))
+                .then(() -> snapshot.tryEmitNext(MovieInfoEvent.snapshot(movieInfo(100).getMovieInfo())))
+                .assertNext(event -> assertEquals(MovieInfoEvent.SNAPSHOT, event.getType()))
+                // snapshot still being read: one waits in the merge, 2 in the buffer, the 4th does not fit
+                .then(() -> Flux.range(0, 4).map(this::movieInfo).subscribe(broadcaster::emit))
+                .verifyErrorMatches(Exceptions::isOverflow);
+
+        assertEquals(1, meterRegistry.get("movieinfo.broadcast.disconnected").counter().count());
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void catchUpSubscriberCountsAgainstLimit() {
+        var broadcaster = new MovieInfoBroadcaster(2, MovieInfoBroadcaster.OverflowPolicy.DROP_OLDEST, 1, meterRegistry);
+
+        var first = broadcaster.subscribe(Flux.never(), event -> true).subscribe();
+
+        StepVerifier.create(broadcaster.subscribe())
+                .expectError(MovieInfoStreamLimitException.class)
+                .verify();
+
+        first.dispose();
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+}
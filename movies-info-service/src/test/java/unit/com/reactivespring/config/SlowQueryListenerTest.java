@@ -0,0 +1,122 @@
+package com.reactivespring.config;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SlowQueryListenerTest {
+
+    private static final ConnectionDescription CONNECTION = new ConnectionDescription(new ServerId(new ClusterId(), new ServerAddress()));
+
+    private static final Document COLLSCAN = Document.parse("{queryPlanner: {winningPlan: {stage: 'COLLSCAN'}}}");
+
+    private static final Document IXSCAN = Document.parse(
+            "{queryPlanner: {winningPlan: {stage: 'FETCH', inputStage: {stage: 'IXSCAN', indexName: 'year_id'}}}}");
+
+    ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    ObjectProvider<ReactiveMongoTemplate> templateProvider = mock(ObjectProvider.class);
+
+    SlowQueryListener slowQueryListener = new SlowQueryListener(Duration.ofMillis(100), templateProvider);
+
+    ListAppender<ILoggingEvent> logs = new ListAppender<>();
+
+    @BeforeEach
+    void setUp() {
+        when(templateProvider.getIfAvailable()).thenReturn(reactiveMongoTemplate);
+        logs.start();
+        ((Logger) LoggerFactory.getLogger(SlowQueryListener.class)).addAppender(logs);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ((Logger) LoggerFactory.getLogger(SlowQueryListener.class)).detachAppender(logs);
+    }
+
+    private void command(int requestId, String commandName, String command, long elapsedMillis) {
+        slowQueryListener.commandStarted(new CommandStartedEvent(requestId, CONNECTION, "test", commandName,
+                BsonDocument.parse(command)));
+        slowQueryListener.commandSucceeded(new CommandSucceededEvent(requestId, CONNECTION, commandName,
+                new BsonDocument(), TimeUnit.MILLISECONDS.toNanos(elapsedMillis)));
+    }
+
+    @Test
+    void planSummary() {
+        assertEquals("COLLSCAN", SlowQueryListener.planSummary(COLLSCAN));
+        assertEquals("FETCH <- IXSCAN(year_id)", SlowQueryListener.planSummary(IXSCAN));
+        // aggregate nests the query planner inside the first pipeline stage
+        assertEquals("FETCH <- IXSCAN(year_id)", SlowQueryListener.planSummary(
+                new Document("stages", List.of(new Document("$cursor", IXSCAN), new Document("$group", new Document())))));
+        assertEquals("unknown", SlowQueryListener.planSummary(new Document("ok", 1)));
+    }
+
+    @Test
+    void slowQueryIsLoggedWithItsPlan() {
+        when(reactiveMongoTemplate.executeCommand(any(Document.class))).thenReturn(Mono.just(COLLSCAN));
+
+        command(1, "find", "{find: 'movieInfo', filter: {name: 'Batman'}, lsid: {id: 1}, $db: 'test'}", 250);
+
+        // session and $ fields are left out, explain does not accept them
+        var explain = ArgumentCaptor.forClass(Document.class);
+        verify(reactiveMongoTemplate).executeCommand(explain.capture());
+        var explained = explain.getValue().get("explain", Document.class);
+        assertEquals(new BsonString("movieInfo"), explained.get("find"));
+        assertFalse(explained.containsKey("lsid"));
+        assertFalse(explained.containsKey("$db"));
+
+        assertEquals(1, logs.list.size());
+        var message = logs.list.get(0).getFormattedMessage();
+        assertTrue(message.contains("took 250 ms"), message);
+        assertTrue(message.contains("plan: COLLSCAN"), message);
+    }
+
+    @Test
+    void slowIndexedQueryIsLoggedWithIndexName() {
+        when(reactiveMongoTemplate.executeCommand(any(Document.class))).thenReturn(Mono.just(IXSCAN));
+
+        command(2, "find", "{find: 'movieInfo', filter: {year: 2005}}", 100);
+
+        assertEquals(1, logs.list.size());
+        assertTrue(logs.list.get(0).getFormattedMessage().contains("plan: FETCH <- IXSCAN(year_id)"));
+    }
+
+    @Test
+    void fastAndNonQueryCommandsAreNotExplained() {
+        command(3, "find", "{find: 'movieInfo', filter: {year: 2005}}", 99);
+        command(4, "insert", "{insert: 'movieInfo', documents: []}", 500);
+
+        verify(reactiveMongoTemplate, never()).executeCommand(any(Document.class));
+        assertTrue(logs.list.isEmpty());
+    }
+}
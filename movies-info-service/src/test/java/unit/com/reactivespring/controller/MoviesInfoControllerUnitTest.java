@@ -1,5 +1,6 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.broadcast.MovieInfoChangeStream;
 import com.reactivespring.domain.MovieInfo;
 import com.reactivespring.service.MoviesInfoService;
 import org.junit.jupiter.api.Test;
@@ -32,6 +33,9 @@ public class MoviesInfoControllerUnitTest {
     @MockBean
     private MoviesInfoService moviesInfoService;
 
+    @MockBean
+    private MovieInfoChangeStream movieInfoChangeStream;
+
     @Test
      void getAllMoviesInfo() {
         // given
@@ -42,7 +46,7 @@ public class MoviesInfoControllerUnitTest {
         );
 
         // when
-        when(moviesInfoService.getAllMovieInfos()).thenReturn(Flux.fromIterable(movieinfos));
+        when(moviesInfoService.getMovieInfos(null, null, 100, null)).thenReturn(Flux.fromIterable(movieinfos));
 
         //then
         webTestClient.get()
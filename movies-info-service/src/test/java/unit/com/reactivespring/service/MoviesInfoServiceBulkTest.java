@@ -0,0 +1,66 @@
+package com.reactivespring.service;
+
+import com.reactivespring.repository.MovieInfoRepository;
+import com.reactivespring.repository.MovieInfoTombstoneRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import javax.validation.Validation;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MoviesInfoServiceBulkTest {
+
+    private static final String BATMAN = "{\"name\":\"Batman Returns\",\"year\":1992,\"cast\":[\"Michael Keaton\"],\"release_date\":\"1992-06-19\"}";
+
+    MovieInfoRepository movieInfoRepository = mock(MovieInfoRepository.class);
+
+    MoviesInfoService moviesInfoService = new MoviesInfoService(movieInfoRepository, mock(MovieInfoTombstoneRepository.class),
+            Validation.buildDefaultValidatorFactory().getValidator(), Jackson2ObjectMapperBuilder.json().build(),
+            500, Duration.ofMillis(100));
+
+    private DataBuffer buffer(String content) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void resultsStreamWhileBodyIsStillBeingRead() {
+        when(movieInfoRepository.insertUnordered(anyList())).thenReturn(Mono.just(Map.of()));
+
+        // one record and the upload goes quiet, far below the batch size
+        var body = Flux.concat(Flux.just(buffer(BATMAN + "\n")), Flux.<DataBuffer>never());
+
+        StepVerifier.create(moviesInfoService.bulkAddMovieInfos(body, saved -> {}))
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void lineSplitAcrossBuffersIsParsedAsOneRecord() {
+        when(movieInfoRepository.insertUnordered(anyList())).thenReturn(Mono.just(Map.of()));
+
+        var half = BATMAN.length() / 2;
+        var body = Flux.just(buffer(BATMAN.substring(0, half)), buffer(BATMAN.substring(half) + "\n" + BATMAN));
+
+        StepVerifier.create(moviesInfoService.bulkAddMovieInfos(body, saved -> {}))
+                .assertNext(result -> assertEquals(0L, result.getIndex()))
+                .assertNext(result -> {
+                    // last line without a trailing newline still counts
+                    assertEquals(1L, result.getIndex());
+                    assertEquals(201, result.getStatus());
+                })
+                .verifyComplete();
+    }
+}
@@ -1,9 +1,12 @@
 package com.reactivespring;
 
+import com.reactivespring.common.filter.DeadlineWebFilter;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
 
 @SpringBootApplication
+@Import(DeadlineWebFilter.class) // X-Request-Timeout sent by movies-service
 public class MoviesReviewServiceApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,232 @@
+package com.reactivespring.broadcast;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    review stream with a bounded replay window instead of replay().all()
+    - every review gets the next sequence number, the SSE id is <epoch>-<sequence>
+    - epoch is new with every start, an id of another epoch always gets a gap - its sequence says nothing here
+    - only the last maxSize reviews not older than maxAge are kept
+    - Last-Event-ID replays only reviews after it, a gap event first if some of them were already evicted
+    - without Last-Event-ID the whole (bounded) window is replayed
+    - every subscriber has its own bounded buffer, a subscriber that can't keep up is disconnected
+      and catches up by reconnecting with its Last-Event-ID
+    - subscribers of some movies only are kept per movieInfoId, a review is handed only to the subscribers
+      of its movie (and to the unfiltered ones), so it costs nothing for everybody else
+    - a bulk batch is handed to every subscriber as one reviews event, so it takes one buffer slot however
+      large it is - one event per review would overflow bufferSize with a single batch
+ */
+@Component
+@Slf4j
+public class ReviewReplayLog {
+
+    private final int maxSize;
+    private final Duration maxAge;
+    private final int bufferSize;
+    private final Clock clock;
+    // start time of this instance, base 36
+    private final String epoch;
+
+    // window, sequence and subscribers change together under the lock, so a subscriber sees every id exactly once
+    private final Deque<ReviewEvent> window = new ArrayDeque<>();
+    private final Set<Subscriber> allSubscribers = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Set<Subscriber>> subscribersByMovie = new ConcurrentHashMap<>();
+    private long sequence;
+
+    @Autowired
+    public ReviewReplayLog(@Value("${reviews.stream.replay.maxSize:1000}") int maxSize,
+                           @Value("${reviews.stream.replay.maxAge:PT10M}") Duration maxAge,
+                           @Value("${reviews.stream.bufferSize:256}") int bufferSize) {
+        this(maxSize, maxAge, bufferSize, Clock.systemUTC());
+    }
+
+    ReviewReplayLog(int maxSize, Duration maxAge, int bufferSize, Clock clock) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.bufferSize = bufferSize;
+        this.clock = clock;
+        this.epoch = Long.toString(clock.millis(), 36);
+    }
+
+    public synchronized ReviewEvent append(Review review) {
+        var event = ReviewEvent.review(epoch, ++sequence, review, clock.instant());
+        window.addLast(event);
+        evict();
+
+        dispatch(event);
+        return event;
+    }
+
+    // a whole batch under one lock and one eviction, every subscriber gets one reviews event with its part of it
+    public synchronized List<ReviewEvent> appendAll(List<Review> reviews) {
+        var now = clock.instant();
+        var events = new ArrayList<ReviewEvent>(reviews.size());
+        for (var review : reviews) {
+            var event = ReviewEvent.review(epoch, ++sequence, review, now);
+            window.addLast(event);
+            events.add(event);
+        }
+        evict();
+        if (events.isEmpty()) {
+            return events;
+        }
+
+        var last = events.get(events.size() - 1);
+        var batch = ReviewEvent.reviews(last, List.copyOf(reviews));
+        for (var subscriber : allSubscribers) {
+            emit(subscriber, batch);
+        }
+        // identity map, a subscriber of several movies gets its reviews of all of them in one event and in order
+        var reviewsBySubscriber = new IdentityHashMap<Subscriber, List<Review>>();
+        for (var review : reviews) {
+            var movieSubscribers = review.getMovieInfoId() != null ? subscribersByMovie.get(review.getMovieInfoId()) : null;
+            if (movieSubscribers != null) {
+                for (var subscriber : movieSubscribers) {
+                    reviewsBySubscriber.computeIfAbsent(subscriber, s -> new ArrayList<>()).add(review);
+                }
+            }
+        }
+        reviewsBySubscriber.forEach((subscriber, subscriberReviews) ->
+                emit(subscriber, ReviewEvent.reviews(last, subscriberReviews)));
+        return events;
+    }
+
+    private void dispatch(ReviewEvent event) {
+        dispatch(allSubscribers, event);
+        var movieInfoId = event.getReview().getMovieInfoId();
+        var movieSubscribers = movieInfoId != null ? subscribersByMovie.get(movieInfoId) : null;
+        if (movieSubscribers != null) {
+            dispatch(movieSubscribers, event);
+        }
+    }
+
+    private void dispatch(Set<Subscriber> subscribers, ReviewEvent event) {
+        for (var subscriber : subscribers) {
+            emit(subscriber, event);
+        }
+    }
+
+    private void emit(Subscriber subscriber, ReviewEvent event) {
+        var result = subscriber.sink.tryEmitNext(event);
+        if (result.isFailure()) {
+            // buffer full, client reconnects with Last-Event-ID and gets the rest from the window
+            log.warn("Disconnecting review stream subscriber, emit result: {}", result);
+            remove(subscriber);
+            subscriber.sink.tryEmitError(new IllegalStateException("Review stream subscriber is too slow"));
+        }
+    }
+
+    public Flux<ReviewEvent> subscribe(ReviewEvent.EventId lastEventId) {
+        return subscribe(lastEventId, Set.of());
+    }
+
+    // empty movieInfoIds - reviews of every movie
+    public Flux<ReviewEvent> subscribe(ReviewEvent.EventId lastEventId, Set<Long> movieInfoIds) {
+        return Flux.defer(() -> {
+            // registered together with the snapshot, reviews appended meanwhile wait in its buffer
+            var subscriber = new Subscriber(movieInfoIds,
+                    Sinks.many().unicast().onBackpressureBuffer(Queues.<ReviewEvent>get(bufferSize).get()));
+            List<ReviewEvent> missed;
+            synchronized (this) {
+                evict();
+                missed = missedEvents(lastEventId, movieInfoIds);
+                add(subscriber);
+            }
+            return Flux.concat(Flux.fromIterable(missed), subscriber.sink.asFlux())
+                    .doFinally(signalType -> remove(subscriber));
+        });
+    }
+
+    public String epoch() {
+        return epoch;
+    }
+
+    public synchronized int size() {
+        return window.size();
+    }
+
+    public synchronized int subscriberCount() {
+        return allSubscribers.size() + subscribersByMovie.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private synchronized void add(Subscriber subscriber) {
+        if (subscriber.movieInfoIds.isEmpty()) {
+            allSubscribers.add(subscriber);
+            return;
+        }
+        for (var movieInfoId : subscriber.movieInfoIds) {
+            subscribersByMovie.computeIfAbsent(movieInfoId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+    }
+
+    private synchronized void remove(Subscriber subscriber) {
+        allSubscribers.remove(subscriber);
+        for (var movieInfoId : subscriber.movieInfoIds) {
+            var movieSubscribers = subscribersByMovie.get(movieInfoId);
+            if (movieSubscribers != null && movieSubscribers.remove(subscriber) && movieSubscribers.isEmpty()) {
+                // movies nobody listens to anymore must not pile up
+                subscribersByMovie.remove(movieInfoId);
+            }
+        }
+    }
+
+    // gap is reported even if the evicted reviews were of other movies, they are not known anymore
+    private List<ReviewEvent> missedEvents(ReviewEvent.EventId lastEventId, Set<Long> movieInfoIds) {
+        var missed = new ArrayList<ReviewEvent>();
+        var firstAvailable = window.isEmpty() ? sequence + 1 : window.getFirst().getSequence();
+        // id from before a restart (or one this epoch never gave out), what followed it is unknown here
+        var otherEpoch = lastEventId != null
+                && (!epoch.equals(lastEventId.getEpoch()) || lastEventId.getSequence() > sequence);
+        if (otherEpoch) {
+            // to is <epoch>-0 when nothing of this epoch was evicted yet, the loss is only what the restart took
+            missed.add(ReviewEvent.gap(null, ReviewEvent.EventId.format(epoch, firstAvailable - 1)));
+        } else if (lastEventId != null && lastEventId.getSequence() + 1 < firstAvailable) {
+            missed.add(ReviewEvent.gap(ReviewEvent.EventId.format(epoch, lastEventId.getSequence() + 1),
+                    ReviewEvent.EventId.format(epoch, firstAvailable - 1)));
+        }
+        for (var event : window) {
+            var newer = lastEventId == null || otherEpoch || event.getSequence() > lastEventId.getSequence();
+            if (newer && (movieInfoIds.isEmpty() || movieInfoIds.contains(event.getReview().getMovieInfoId()))) {
+                missed.add(event);
+            }
+        }
+        return missed;
+    }
+
+    private void evict() {
+        var oldest = clock.instant().minus(maxAge);
+        while (!window.isEmpty() && (window.size() > maxSize || window.getFirst().getCreatedAt().isBefore(oldest))) {
+            window.removeFirst();
+        }
+    }
+
+    private static class Subscriber {
+
+        private final Set<Long> movieInfoIds;
+        private final Sinks.Many<ReviewEvent> sink;
+
+        Subscriber(Set<Long> movieInfoIds, Sinks.Many<ReviewEvent> sink) {
+            this.movieInfoIds = movieInfoIds;
+            this.sink = sink;
+        }
+    }
+}
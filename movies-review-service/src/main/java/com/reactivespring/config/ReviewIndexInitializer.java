@@ -0,0 +1,16 @@
+package com.reactivespring.config;
+
+import com.reactivespring.common.index.IndexInitializer;
+import com.reactivespring.domain.Review;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+// indexes of Review exist before the first request, paged review queries depend on them - see IndexInitializer
+@Component
+public class ReviewIndexInitializer extends IndexInitializer {
+
+    public ReviewIndexInitializer(ReactiveMongoTemplate reactiveMongoTemplate, MongoMappingContext mongoMappingContext) {
+        super(reactiveMongoTemplate, mongoMappingContext, Review.class);
+    }
+}
@@ -0,0 +1,12 @@
+package com.reactivespring.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// background jobs such as the review stats reconciliation, tests can switch them off
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(value = "reviews.scheduling.enabled", matchIfMissing = true)
+public class SchedulingConfig {
+}
@@ -5,18 +5,30 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Document
+@CompoundIndexes({
+        // reviews of a movie best rated first (sort=rating), keyset paging continues on (rating, _id)
+        @CompoundIndex(name = "movieInfoId_rating_id", def = "{'movieInfoId': 1, 'rating': -1, '_id': -1}"),
+        // reviews of a movie newest first (sort=recent)
+        @CompoundIndex(name = "movieInfoId_id", def = "{'movieInfoId': 1, '_id': -1}")
+})
 public class Review {
 
+    // only ObjectId hex strings, they are stored as ObjectId - a plain string _id would sort apart from them
+    // (BSON orders by type first) and break the reviewId keyset paging
     @Id
+    @Pattern(regexp = "[0-9a-fA-F]{24}", message = "review.reviewId : must be an ObjectId")
     private String reviewId;
     @NotNull(message = "rating.movieInfoId : must not be null")
     private Long movieInfoId;
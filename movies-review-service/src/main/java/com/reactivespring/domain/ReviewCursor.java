@@ -0,0 +1,52 @@
+package com.reactivespring.domain;
+
+import com.reactivespring.exception.ReviewDataException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/*
+    position after the last review of a page, sent to clients as an opaque string
+    holds the sort it was made for and the sort key of the last review (rating and/or reviewId)
+ */
+@Data
+@AllArgsConstructor
+public class ReviewCursor {
+
+    public enum SortOrder {
+        // highest rating first, reviews with the same rating newest first
+        RATING,
+        // newest first, ObjectId reviewIds grow with creation time
+        RECENT
+    }
+
+    private SortOrder sortOrder;
+    private Double rating;
+    private String reviewId;
+
+    public static ReviewCursor after(SortOrder sortOrder, Review review) {
+        return new ReviewCursor(sortOrder, sortOrder == SortOrder.RATING ? review.getRating() : null, review.getReviewId());
+    }
+
+    public String encode() {
+        var value = sortOrder + "|" + (rating != null ? rating : "") + "|" + reviewId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static ReviewCursor decode(String cursor) {
+        try {
+            var parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 3);
+            var rating = parts[1].isEmpty() ? null : Double.valueOf(parts[1]);
+            if (!ObjectId.isValid(parts[2])) {
+                // compared as a string it would never match the ObjectId _ids
+                throw new IllegalArgumentException("reviewId is not an ObjectId");
+            }
+            return new ReviewCursor(SortOrder.valueOf(parts[0]), rating, parts[2]);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new ReviewDataException("Invalid cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.reactivespring.domain;
+
+import com.reactivespring.exception.ReviewDataException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/*
+    one entry of the review stream, id is the SSE event id a client sends back as Last-Event-ID
+    ids are <epoch>-<sequence>, epoch changes with every start of the service, sequence starts again from 1
+    gap tells a reconnecting client that reviews after its Last-Event-ID are lost, the first one still
+    available comes right after gapTo - gapFrom is null when they were lost with a restart
+    reviews is one event for a whole bulk batch (of the subscriber's movies), its id is the last review of the batch
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReviewEvent {
+
+    public static final String REVIEW = "review";
+    public static final String GAP = "gap";
+    public static final String REVIEWS = "reviews";
+
+    private String id;
+    private long sequence;
+    private String type;
+    private Review review;
+    private List<Review> reviews;
+    private Instant createdAt;
+    private String gapFrom;
+    private String gapTo;
+
+    public static ReviewEvent review(String epoch, long sequence, Review review, Instant createdAt) {
+        return new ReviewEvent(EventId.format(epoch, sequence), sequence, REVIEW, review, null, createdAt, null, null);
+    }
+
+    // a client resuming with the gap's id continues right after gapTo
+    public static ReviewEvent gap(String gapFrom, String gapTo) {
+        var to = EventId.parse(gapTo);
+        return new ReviewEvent(gapTo, to.getSequence(), GAP, null, null, null, gapFrom, gapTo);
+    }
+
+    // last is the event of the batch's last review, even when it is not one of the reviews handed out
+    public static ReviewEvent reviews(ReviewEvent last, List<Review> reviews) {
+        return new ReviewEvent(last.getId(), last.getSequence(), REVIEWS, null, reviews, last.getCreatedAt(), null, null);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class EventId {
+
+        // null for ids sent before they carried an epoch
+        private String epoch;
+        private long sequence;
+
+        public static String format(String epoch, long sequence) {
+            return epoch + "-" + sequence;
+        }
+
+        public static EventId parse(String id) {
+            try {
+                var separator = id.lastIndexOf('-');
+                if (separator < 0) {
+                    return new EventId(null, Long.parseLong(id.trim()));
+                }
+                return new EventId(id.substring(0, separator).trim(), Long.parseLong(id.substring(separator + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new ReviewDataException("Last-Event-ID must be the id of a review stream event: " + id);
+            }
+        }
+    }
+}
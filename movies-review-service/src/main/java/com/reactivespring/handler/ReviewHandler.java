@@ -1,36 +1,83 @@
 package com.reactivespring.handler;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.broadcast.ReviewReplayLog;
+import com.reactivespring.common.bulk.BulkIngestion;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewBulkResult;
+import com.reactivespring.domain.ReviewCursor;
+import com.reactivespring.domain.ReviewEvent;
+import com.reactivespring.domain.ReviewStats;
 import com.reactivespring.exception.ReviewDataException;
 import com.reactivespring.exception.ReviewNotFoundException;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Component
 @Slf4j
 public class ReviewHandler {
 
-    Sinks.Many<Review> reviewsSink = Sinks.many().replay().all();
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
 
-    @Autowired
     private Validator validator;
 
+    // clients may reuse a reviews list this long without asking, after that they revalidate with the ETag
+    @Value("${reviews.cache.maxAge:PT0S}")
+    private Duration cacheMaxAge;
+
+    // NDJSON bulk inserts - line parsing, validation and unordered insertMany batches
+    private BulkIngestion<Review, ReviewBulkResult> bulkIngestion;
+
+    @Value("${reviews.page.defaultLimit:100}")
+    private int defaultPageSize;
+
+    @Value("${reviews.page.maxLimit:1000}")
+    private int maxPageSize;
+
     private ReviewReactiveRepository reviewReactiveRepository;
 
-    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository) {
+    // rating count, sum, min, max and histogram per movie, changed together with every review write
+    private ReviewStatsRepository reviewStatsRepository;
+
+    // added reviews for /stream, bounded and resumable with Last-Event-ID
+    private ReviewReplayLog reviewReplayLog;
+
+    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository, ReviewStatsRepository reviewStatsRepository,
+                         ReviewReplayLog reviewReplayLog, Validator validator, ObjectMapper objectMapper,
+                         @Value("${reviews.bulk.batchSize:500}") int bulkBatchSize,
+                         @Value("${reviews.bulk.maxWait:PT0.2S}") Duration bulkMaxWait) {
         this.reviewReactiveRepository = reviewReactiveRepository;
+        this.reviewStatsRepository = reviewStatsRepository;
+        this.reviewReplayLog = reviewReplayLog;
+        this.validator = validator;
+        this.bulkIngestion = new BulkIngestion<>(objectMapper, validator, Review.class, Review::getReviewId,
+                ReviewBulkResult::new, bulkBatchSize, bulkMaxWait);
     }
 
     // persisting data in database and building ServerResponse
@@ -40,8 +87,10 @@ public class ReviewHandler {
                 .flatMap(review -> {
                     return reviewReactiveRepository.save(review);
                 })
+                .flatMap(review -> reviewStatsRepository.applyRatingChange(review.getMovieInfoId(), null, review.getRating())
+                        .thenReturn(review))
                 .doOnNext(review -> {
-                    reviewsSink.tryEmitNext(review);
+                    reviewReplayLog.append(review);
                 })
                 .flatMap(savedReview -> {
                     return ServerResponse.status(HttpStatus.CREATED)
@@ -49,6 +98,32 @@ public class ReviewHandler {
                 });
     }
 
+    /*
+        POST /v1/reviews/bulk with one review json per line (application/x-ndjson)
+        response streams one ReviewBulkResult per line while the body is still being read
+        malformed or invalid lines are reported without reaching mongo, valid ones are inserted in unordered batches
+     */
+    public Mono<ServerResponse> bulkAddReviews(ServerRequest request) {
+        var results = bulkIngestion.ingest(request.body(BodyExtractors.toDataBuffers()),
+                reviewReactiveRepository::insertUnordered,
+                saved -> updateStats(saved).then(Mono.fromRunnable(() -> reviewReplayLog.appendAll(saved))));
+
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(results, ReviewBulkResult.class);
+    }
+
+    // one stats upsert per movie of the batch instead of one per review
+    private Mono<Void> updateStats(List<Review> saved) {
+        var ratingsByMovie = saved.stream()
+                .filter(review -> review.getRating() != null)
+                .collect(Collectors.groupingBy(Review::getMovieInfoId,
+                        Collectors.mapping(Review::getRating, Collectors.toList())));
+        return Flux.fromIterable(ratingsByMovie.entrySet())
+                .flatMap(ratings -> reviewStatsRepository.addRatings(ratings.getKey(), ratings.getValue()))
+                .then();
+    }
+
     private void validate(Review review) {
         var constraintViolations = validator.validate(review);
         log.info("constraintViolations: {}", constraintViolations);
@@ -65,55 +140,180 @@ public class ReviewHandler {
 
     }
 
+    /*
+        GET /v1/reviews?movieInfoId=1&sort=rating|recent&limit=100&cursor=<X-Next-Cursor of the previous page>
+        always one page, X-Next-Cursor header is sent while there may be more reviews
+     */
     public Mono<ServerResponse> getReviews(ServerRequest request) {
+        return Mono.defer(() -> {
+            var movieInfoId = request.queryParam("movieInfoId").map(this::parseMovieInfoId).orElse(null);
+            log.debug("getReviews movieInfoId: {}", movieInfoId);
+            var sortOrder = sortOrder(request, movieInfoId);
+            var cursor = request.queryParam("cursor").map(ReviewCursor::decode).orElse(null);
+            if (cursor != null && cursor.getSortOrder() != sortOrder) {
+                throw new ReviewDataException("cursor was made for sort=" + cursor.getSortOrder().name().toLowerCase());
+            }
+            var limit = pageSize(request);
 
-        var movieInfoId = request.queryParam("movieInfoId");
-        System.out.println(movieInfoId);
+            // reviews have no version, so the ETag is a hash of the whole page
+            // a matching If-None-Match gets 304 and the page is never serialized
+            return reviewReactiveRepository.findReviews(movieInfoId, sortOrder, cursor, limit)
+                    .collectList()
+                    .flatMap(reviews -> {
+                        var eTag = eTag(reviews);
+                        return request.checkNotModified(eTag)
+                                .switchIfEmpty(Mono.defer(() -> ServerResponse.ok()
+                                        .eTag(eTag)
+                                        .cacheControl(CacheControl.maxAge(cacheMaxAge).mustRevalidate())
+                                        .varyBy(HttpHeaders.ACCEPT) // json or Smile, whatever Accept asks for
+                                        .headers(headers -> {
+                                            // a full page may be followed by more
+                                            if (reviews.size() == limit) {
+                                                headers.set(NEXT_CURSOR, ReviewCursor.after(sortOrder, reviews.get(reviews.size() - 1)).encode());
+                                            }
+                                        })
+                                        .bodyValue(reviews)));
+                    });
+        });
+    }
 
-        if (movieInfoId.isPresent()) {
-            var reviewsFlux = reviewReactiveRepository.findReviewsByMovieInfoId(Long.valueOf(movieInfoId.get()));
-            return ServerResponse.ok().body(reviewsFlux, Review.class); // can be extracted to a method
-        } else {
-            var reviewsFlux = reviewReactiveRepository.findAll();
-            return ServerResponse.ok().body(reviewsFlux, Review.class);
+    private ReviewCursor.SortOrder sortOrder(ServerRequest request, Long movieInfoId) {
+        var sort = request.queryParam("sort").orElse("recent");
+        switch (sort) {
+            case "recent":
+                return ReviewCursor.SortOrder.RECENT;
+            case "rating":
+                // rating order is indexed per movie only
+                if (movieInfoId == null) {
+                    throw new ReviewDataException("sort=rating needs a movieInfoId");
+                }
+                return ReviewCursor.SortOrder.RATING;
+            default:
+                throw new ReviewDataException("sort must be rating or recent");
         }
     }
 
-    public Mono<ServerResponse> updateReview(ServerRequest request) {
+    private int pageSize(ServerRequest request) {
+        var limit = request.queryParam("limit");
+        if (limit.isEmpty()) {
+            return defaultPageSize;
+        }
+        try {
+            return Math.max(1, Math.min(Integer.parseInt(limit.get()), maxPageSize));
+        } catch (NumberFormatException e) {
+            throw new ReviewDataException("limit must be a number: " + limit.get());
+        }
+    }
 
-        String reviewId = request.pathVariable("id");
+    private String eTag(List<Review> reviews) {
+        return "\"" + DigestUtils.md5DigestAsHex(reviews.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
 
-        // if movieInfoId not correct throw ReviewNotFound
-        Mono<Review> existingReview = reviewReactiveRepository.findById(reviewId)
-                .switchIfEmpty(Mono.error(new ReviewNotFoundException("Review not found for the given Review id " + reviewId)));
+    public Mono<ServerResponse> updateReview(ServerRequest request) {
 
-        return existingReview
-                 .flatMap(review -> request.bodyToMono(Review.class)
-                         .map(reqReview -> {
-                             review.setComment(reqReview.getComment());
-                             review.setRating(reqReview.getRating());
+        String reviewId = request.pathVariable("id");
 
-                            return review;
-                         }))
-                 .flatMap(reviewReactiveRepository::save)
-                 .flatMap(savedReview -> ServerResponse.ok().bodyValue(savedReview));
+        // the stats delta is taken from the review as the update found it, not from an earlier read
+        return request.bodyToMono(Review.class)
+                .flatMap(reqReview -> reviewReactiveRepository.updateReturningPrevious(reviewId, reqReview.getComment(), reqReview.getRating())
+                        // if movieInfoId not correct throw ReviewNotFound
+                        .switchIfEmpty(Mono.error(new ReviewNotFoundException("Review not found for the given Review id " + reviewId)))
+                        .flatMap(previous -> reviewStatsRepository
+                                .applyRatingChange(previous.getMovieInfoId(), previous.getRating(), reqReview.getRating())
+                                .thenReturn(new Review(reviewId, previous.getMovieInfoId(), reqReview.getComment(), reqReview.getRating()))))
+                .flatMap(savedReview -> ServerResponse.ok().bodyValue(savedReview));
     }
 
     public Mono<ServerResponse> deleteReview(ServerRequest request) {
         String reviewId = request.pathVariable("id");
 
-        Mono<Review> existingReview = reviewReactiveRepository.findById(reviewId);
+        // only the delete that removed the review takes its rating out of the stats, concurrent ones find nothing
+        return reviewReactiveRepository.removeReturningPrevious(reviewId)
+                .flatMap(review -> reviewStatsRepository.applyRatingChange(review.getMovieInfoId(), review.getRating(), null)
+                        .then(ServerResponse.noContent().build()));
+    }
 
-       return existingReview.flatMap(review -> reviewReactiveRepository.deleteById(reviewId)
-               .then(ServerResponse.noContent().build()));
+    // GET /v1/reviews/stats?movieInfoId=1 - one document read, no matter how many reviews the movie has
+    public Mono<ServerResponse> getReviewStats(ServerRequest request) {
+        return Mono.defer(() -> {
+            var movieInfoId = request.queryParam("movieInfoId")
+                    .map(this::parseMovieInfoId)
+                    .orElseThrow(() -> new ReviewDataException("movieInfoId must be present"));
+            return reviewStatsRepository.findById(movieInfoId)
+                    .defaultIfEmpty(ReviewStats.empty(movieInfoId))
+                    .flatMap(stats -> ServerResponse.ok().bodyValue(stats));
+        });
     }
 
+    /*
+        server sent events, event review with the review as data and <epoch>-<sequence> as id
+        reconnecting with Last-Event-ID gets only the reviews after it, or first a gap event
+        (data {"from", "to"}, from null when they were lost with a restart) when some of them are no longer kept
+        reviews of a bulk request come as event reviews with an array of reviews as data, replayed ones one by one
+        ?movieInfoId=1&movieInfoId=2 (or movieInfoId=1,2) - only reviews of these movies
+     */
     public Mono<ServerResponse> getReviewsStream(ServerRequest request) {
-        System.out.println("Sve ti jebem!");
+        // defer so an invalid Last-Event-ID or movieInfoId ends up in GlobalErrorHandler as 400
+        return Mono.defer(() -> streamResponse(lastEventId(request), movieInfoIds(request)));
+    }
+
+    private Mono<ServerResponse> streamResponse(ReviewEvent.EventId lastEventId, Set<Long> movieInfoIds) {
+        var events = reviewReplayLog.subscribe(lastEventId, movieInfoIds)
+                .map(event -> ReviewEvent.GAP.equals(event.getType())
+                        ? ServerSentEvent.<Object>builder(gap(event))
+                                .id(event.getId())
+                                .event(ReviewEvent.GAP)
+                                .build()
+                        : ReviewEvent.REVIEWS.equals(event.getType())
+                        ? ServerSentEvent.<Object>builder(event.getReviews())
+                                .id(event.getId())
+                                .event(ReviewEvent.REVIEWS)
+                                .build()
+                        : ServerSentEvent.<Object>builder(event.getReview())
+                                .id(event.getId())
+                                .event(ReviewEvent.REVIEW)
+                                .build());
 
         return ServerResponse.ok()
                 .contentType(MediaType.TEXT_EVENT_STREAM)
-                .body(reviewsSink.asFlux(), Review.class)
+                .body(BodyInserters.fromServerSentEvents(events))
                 .log();
     }
+
+    // from is null when the missed reviews were lost with a restart, Map.of does not take it
+    private Map<String, Object> gap(ReviewEvent event) {
+        var gap = new LinkedHashMap<String, Object>();
+        gap.put("from", event.getGapFrom());
+        gap.put("to", event.getGapTo());
+        return gap;
+    }
+
+    private Set<Long> movieInfoIds(ServerRequest request) {
+        var movieInfoIds = new HashSet<Long>();
+        for (var value : request.queryParams().getOrDefault("movieInfoId", List.of())) {
+            for (var movieInfoId : value.split(",")) {
+                if (movieInfoId.isBlank()) {
+                    continue;
+                }
+                movieInfoIds.add(parseMovieInfoId(movieInfoId));
+            }
+        }
+        return movieInfoIds;
+    }
+
+    private Long parseMovieInfoId(String movieInfoId) {
+        try {
+            return Long.valueOf(movieInfoId.trim());
+        } catch (NumberFormatException e) {
+            throw new ReviewDataException("movieInfoId must be a number: " + movieInfoId);
+        }
+    }
+
+    private ReviewEvent.EventId lastEventId(ServerRequest request) {
+        var lastEventId = request.headers().firstHeader("Last-Event-ID");
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return null;
+        }
+        return ReviewEvent.EventId.parse(lastEventId);
+    }
 }
@@ -0,0 +1,29 @@
+package com.reactivespring.repository;
+
+import com.mongodb.WriteError;
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewCursor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+public interface ReviewReactiveRepositoryCustom {
+
+    // keyset pagination - one page of reviews in the given order, starting after the cursor (null for the first page)
+    // movieInfoId null pages through the reviews of all movies
+    Flux<Review> findReviews(Long movieInfoId, ReviewCursor.SortOrder sortOrder, ReviewCursor after, int limit);
+
+    // one unordered insertMany, a failing document does not stop the rest of the batch
+    // skips lifecycle events and auditing (see UnorderedInsert), reviews have neither
+    // returns the write error of every failed position in the list, empty map when all were inserted
+    Mono<Map<Integer, WriteError>> insertUnordered(List<Review> reviews);
+
+    // one atomic findAndModify setting comment and rating, returns the review as it was before (empty when not found)
+    // the stats delta is computed from that, a concurrent update can't make the previous rating stale
+    Mono<Review> updateReturningPrevious(String reviewId, String comment, Double rating);
+
+    // one atomic findAndRemove, only the request that actually removed the review gets it back
+    Mono<Review> removeReturningPrevious(String reviewId);
+}
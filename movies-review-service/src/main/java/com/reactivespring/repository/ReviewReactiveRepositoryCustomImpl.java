@@ -0,0 +1,102 @@
+package com.reactivespring.repository;
+
+import com.mongodb.WriteError;
+import com.reactivespring.common.bulk.UnorderedInsert;
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewCursor;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+public class ReviewReactiveRepositoryCustomImpl implements ReviewReactiveRepositoryCustom {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReviewReactiveRepositoryCustomImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public Flux<Review> findReviews(Long movieInfoId, ReviewCursor.SortOrder sortOrder, ReviewCursor after, int limit) {
+        var query = new Query().limit(limit);
+        if (movieInfoId != null) {
+            query.addCriteria(Criteria.where("movieInfoId").is(movieInfoId));
+        }
+
+        if (sortOrder == ReviewCursor.SortOrder.RATING) {
+            // same order as the movieInfoId_rating_id index, so mongo reads exactly one page of it
+            query.with(Sort.by(Sort.Direction.DESC, "rating", "reviewId"));
+            if (after != null) {
+                query.addCriteria(afterRating(after));
+            }
+        } else {
+            query.with(Sort.by(Sort.Direction.DESC, "reviewId"));
+            if (after != null) {
+                query.addCriteria(Criteria.where("reviewId").lt(after.getReviewId()));
+            }
+        }
+        return reactiveMongoTemplate.find(query, Review.class);
+    }
+
+    @Override
+    public Mono<Map<Integer, WriteError>> insertUnordered(List<Review> reviews) {
+        reviews.forEach(review -> {
+            // ids are assigned up front so every record of the report has one, hex string is stored as ObjectId like save() does
+            if (review.getReviewId() == null) {
+                review.setReviewId(new ObjectId().toHexString());
+            }
+        });
+        return UnorderedInsert.insertUnordered(reactiveMongoTemplate, Review.class, reviews);
+    }
+
+    @Override
+    public Mono<Review> updateReturningPrevious(String reviewId, String comment, Double rating) {
+        // null is not stored, same as save() does
+        var update = new Update();
+        if (comment != null) {
+            update.set("comment", comment);
+        } else {
+            update.unset("comment");
+        }
+        if (rating != null) {
+            update.set("rating", rating);
+        } else {
+            update.unset("rating");
+        }
+        return reactiveMongoTemplate.findAndModify(byReviewId(reviewId), update,
+                FindAndModifyOptions.options().returnNew(false), Review.class);
+    }
+
+    @Override
+    public Mono<Review> removeReturningPrevious(String reviewId) {
+        return reactiveMongoTemplate.findAndRemove(byReviewId(reviewId), Review.class);
+    }
+
+    // reviews without rating sort after every rated one in descending order
+    private Criteria afterRating(ReviewCursor after) {
+        if (after.getRating() == null) {
+            return new Criteria().andOperator(
+                    Criteria.where("rating").is(null),
+                    Criteria.where("reviewId").lt(after.getReviewId()));
+        }
+        return new Criteria().orOperator(
+                Criteria.where("rating").lt(after.getRating()),
+                new Criteria().andOperator(
+                        Criteria.where("rating").is(after.getRating()),
+                        Criteria.where("reviewId").lt(after.getReviewId())),
+                Criteria.where("rating").is(null));
+    }
+
+    private Query byReviewId(String reviewId) {
+        return Query.query(Criteria.where("reviewId").is(reviewId));
+    }
+}
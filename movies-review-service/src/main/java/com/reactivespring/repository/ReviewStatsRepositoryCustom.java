@@ -0,0 +1,28 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.ReviewStats;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface ReviewStatsRepositoryCustom {
+
+    // one atomic upsert moving the stats of a movie from removedRating to addedRating
+    // null removedRating for a new review, null addedRating for a deleted one
+    Mono<ReviewStats> applyRatingChange(Long movieInfoId, Double removedRating, Double addedRating);
+
+    // one atomic upsert adding all ratings of a movie at once, used by bulk inserts instead of one applyRatingChange per review
+    Mono<ReviewStats> addRatings(Long movieInfoId, List<Double> ratings);
+
+    // stats of every movie computed from the reviews collection with an aggregation pipeline
+    Flux<ReviewStats> aggregateFromReviews();
+
+    // replaces the stats of a movie unless a review write changed them since the given time, true when written
+    // compare-and-set on updatedAt, so an $inc landing while the reconciler computed them is never overwritten
+    Mono<Boolean> replaceIfNotUpdatedSince(ReviewStats stats, Instant since);
+
+    // stats that were neither rebuilt nor changed since the given time, their movies have no rated review anymore
+    Mono<Long> removeNotUpdatedSince(Instant since);
+}
@@ -0,0 +1,171 @@
+package com.reactivespring.repository;
+
+import com.mongodb.client.result.DeleteResult;
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+public class ReviewStatsRepositoryCustomImpl implements ReviewStatsRepositoryCustom {
+
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReviewStatsRepositoryCustomImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public Mono<ReviewStats> applyRatingChange(Long movieInfoId, Double removedRating, Double addedRating) {
+        if (Objects.equals(removedRating, addedRating)) {
+            return reactiveMongoTemplate.findById(movieInfoId, ReviewStats.class);
+        }
+
+        var update = new Update();
+        var countDelta = (addedRating != null ? 1 : 0) - (removedRating != null ? 1 : 0);
+        if (countDelta != 0) {
+            update.inc("count", countDelta);
+        }
+        update.inc("sum", (addedRating != null ? addedRating : 0) - (removedRating != null ? removedRating : 0));
+
+        // both ratings can fall into the same bucket, a second inc on the same key would replace the first one
+        var histogram = new HashMap<String, Long>();
+        if (removedRating != null) {
+            histogram.merge(ReviewStats.bucket(removedRating), -1L, Long::sum);
+        }
+        if (addedRating != null) {
+            histogram.merge(ReviewStats.bucket(addedRating), 1L, Long::sum);
+            update.min("min", addedRating);
+            update.max("max", addedRating);
+        }
+        histogram.forEach((bucket, delta) -> {
+            if (delta != 0) {
+                update.inc("histogram." + bucket, delta);
+            }
+        });
+        // application clock, the reconciler compares it with its own start time
+        update.set("updatedAt", Instant.now());
+
+        // a removal alone never creates stats, missing stats are the reconciler's job
+        var options = FindAndModifyOptions.options().returnNew(true).upsert(addedRating != null);
+        return reactiveMongoTemplate.findAndModify(byMovieInfoId(movieInfoId), update, options, ReviewStats.class)
+                .flatMap(stats -> removedRating != null && (removedRating.equals(stats.getMin()) || removedRating.equals(stats.getMax()))
+                        ? refreshMinMax(movieInfoId)
+                        : Mono.just(stats));
+    }
+
+    @Override
+    public Mono<ReviewStats> addRatings(Long movieInfoId, List<Double> ratings) {
+        if (ratings.isEmpty()) {
+            return reactiveMongoTemplate.findById(movieInfoId, ReviewStats.class);
+        }
+
+        var update = new Update()
+                .inc("count", ratings.size())
+                .inc("sum", ratings.stream().mapToDouble(Double::doubleValue).sum())
+                .min("min", ratings.stream().mapToDouble(Double::doubleValue).min().getAsDouble())
+                .max("max", ratings.stream().mapToDouble(Double::doubleValue).max().getAsDouble());
+        var histogram = new HashMap<String, Long>();
+        ratings.forEach(rating -> histogram.merge(ReviewStats.bucket(rating), 1L, Long::sum));
+        histogram.forEach((bucket, delta) -> update.inc("histogram." + bucket, delta));
+        update.set("updatedAt", Instant.now());
+
+        return reactiveMongoTemplate.findAndModify(byMovieInfoId(movieInfoId), update,
+                FindAndModifyOptions.options().returnNew(true).upsert(true), ReviewStats.class);
+    }
+
+    // min and max can't be undone with $inc, when the removed rating was one of them they are read from the reviews again
+    private Mono<ReviewStats> refreshMinMax(Long movieInfoId) {
+        var aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("movieInfoId").is(movieInfoId).and("rating").ne(null)),
+                Aggregation.group("movieInfoId").min("rating").as("min").max("rating").as("max"));
+
+        return reactiveMongoTemplate.aggregate(aggregation, Review.class, Document.class)
+                .next()
+                .map(minMax -> new Update().set("min", minMax.get("min")).set("max", minMax.get("max")))
+                .defaultIfEmpty(new Update().unset("min").unset("max"))
+                .flatMap(update -> reactiveMongoTemplate.findAndModify(byMovieInfoId(movieInfoId), update,
+                        FindAndModifyOptions.options().returnNew(true), ReviewStats.class));
+    }
+
+    @Override
+    public Flux<ReviewStats> aggregateFromReviews() {
+        // one group per movie and rating bucket, sorted so the buckets of a movie arrive together
+        var aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("rating").ne(null)),
+                Aggregation.project("movieInfoId", "rating")
+                        .and(ArithmeticOperators.Floor.floorValueOf("rating")).as("bucket"),
+                Aggregation.group("movieInfoId", "bucket")
+                        .count().as("count")
+                        .sum("rating").as("sum")
+                        .min("rating").as("min")
+                        .max("rating").as("max"),
+                Aggregation.sort(Sort.Direction.ASC, "movieInfoId"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        return reactiveMongoTemplate.aggregate(aggregation, Review.class, Document.class)
+                .bufferUntilChanged(bucket -> bucket.get("_id", Document.class).get("movieInfoId"))
+                .map(this::toReviewStats);
+    }
+
+    private ReviewStats toReviewStats(List<Document> buckets) {
+        var stats = ReviewStats.empty(((Number) buckets.get(0).get("_id", Document.class).get("movieInfoId")).longValue());
+        for (var bucket : buckets) {
+            var count = ((Number) bucket.get("count")).longValue();
+            var min = ((Number) bucket.get("min")).doubleValue();
+            var max = ((Number) bucket.get("max")).doubleValue();
+            stats.setCount(stats.getCount() + count);
+            stats.setSum(stats.getSum() + ((Number) bucket.get("sum")).doubleValue());
+            stats.setMin(stats.getMin() == null ? min : Math.min(stats.getMin(), min));
+            stats.setMax(stats.getMax() == null ? max : Math.max(stats.getMax(), max));
+            stats.getHistogram().put(ReviewStats.bucket(((Number) bucket.get("_id", Document.class).get("bucket")).doubleValue()), count);
+        }
+        stats.setUpdatedAt(Instant.now());
+        return stats;
+    }
+
+    @Override
+    public Mono<Boolean> replaceIfNotUpdatedSince(ReviewStats stats, Instant since) {
+        var query = Query.query(new Criteria().andOperator(
+                Criteria.where("movieInfoId").is(stats.getMovieInfoId()),
+                new Criteria().orOperator(
+                        Criteria.where("updatedAt").lt(since),
+                        Criteria.where("updatedAt").exists(false))));
+        var update = new Update()
+                .set("count", stats.getCount())
+                .set("sum", stats.getSum())
+                .set("min", stats.getMin())
+                .set("max", stats.getMax())
+                .set("histogram", stats.getHistogram())
+                .set("updatedAt", stats.getUpdatedAt());
+        // no match and no document inserts it, no match because of a newer updatedAt tries to insert the same _id
+        return reactiveMongoTemplate.upsert(query, update, ReviewStats.class)
+                .thenReturn(true)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.just(false));
+    }
+
+    @Override
+    public Mono<Long> removeNotUpdatedSince(Instant since) {
+        return reactiveMongoTemplate.remove(Query.query(Criteria.where("updatedAt").lt(since)), ReviewStats.class)
+                .map(DeleteResult::getDeletedCount);
+    }
+
+    private Query byMovieInfoId(Long movieInfoId) {
+        return Query.query(Criteria.where("movieInfoId").is(movieInfoId));
+    }
+}
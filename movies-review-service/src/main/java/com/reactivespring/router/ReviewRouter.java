@@ -18,10 +18,12 @@ public class ReviewRouter {
         return route()
                 .nest(path("/v1/reviews"), builder -> {
                     builder.POST("", request ->  reviewHandler.addReview(request))
+                            .POST("/bulk", request -> reviewHandler.bulkAddReviews(request))
                             .GET("", request ->  reviewHandler.getReviews(request))
                             .PUT("/{id}", request -> reviewHandler.updateReview(request))
                             .DELETE("/{id}", request -> reviewHandler.deleteReview(request))
-                            .GET("/stream", request ->  reviewHandler.getReviewsStream(request));
+                            .GET("/stream", request ->  reviewHandler.getReviewsStream(request))
+                            .GET("/stats", request -> reviewHandler.getReviewStats(request));
 
                 })
                 .GET("/v1/helloworld", (request) -> ServerResponse.ok().bodyValue("helloworld"))
@@ -0,0 +1,48 @@
+package com.reactivespring.stats;
+
+import com.reactivespring.repository.ReviewStatsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/*
+    rebuilds every ReviewStats document from the reviews with one aggregation
+    review and stats are two separate writes, so a crash between them (or stats from before this feature)
+    leaves them out of sync until the next run
+    stats a review write changed after the job started are left alone, their $inc is never overwritten
+    - a review counted by the aggregation whose own $inc comes after the rebuilt value is counted twice, the next run fixes that
+ */
+@Component
+@Slf4j
+public class ReviewStatsReconciler {
+
+    private ReviewStatsRepository reviewStatsRepository;
+
+    public ReviewStatsReconciler(ReviewStatsRepository reviewStatsRepository) {
+        this.reviewStatsRepository = reviewStatsRepository;
+    }
+
+    @Scheduled(initialDelayString = "${reviews.stats.reconcileInterval:PT1H}", fixedDelayString = "${reviews.stats.reconcileInterval:PT1H}")
+    public void scheduledReconcile() {
+        // scheduler thread, not an event loop, blocking is fine here
+        reconcile().block();
+    }
+
+    public Mono<Long> reconcile() {
+        return Mono.defer(() -> {
+            // mongo keeps milliseconds only
+            var start = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            return reviewStatsRepository.aggregateFromReviews()
+                    .concatMap(stats -> reviewStatsRepository.replaceIfNotUpdatedSince(stats, start))
+                    .filter(written -> written)
+                    .count()
+                    .flatMap(rebuilt -> reviewStatsRepository.removeNotUpdatedSince(start)
+                            .doOnNext(removed -> log.info("Reconciled review stats of {} movies, removed {} without rated reviews", rebuilt, removed))
+                            .thenReturn(rebuilt));
+        });
+    }
+}
@@ -1,18 +1,32 @@
 package com.reactivespring.router;
 
+import com.reactivespring.common.codec.CodecConfig;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewBulkResult;
+import com.reactivespring.domain.ReviewStats;
+import com.reactivespring.handler.ReviewHandler;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
+import com.reactivespring.stats.ReviewStatsReconciler;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -27,14 +41,26 @@ class ReviewRouterTest {
     @Autowired
     ReviewReactiveRepository reviewReactiveRepository;
 
+    @Autowired
+    ReviewStatsRepository reviewStatsRepository;
+
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    ReviewStatsReconciler reviewStatsReconciler;
+
     static String REVIEWS_URL = "/v1/reviews";
 
+    // setUp review with a known id
+    static String REVIEW_ID = "5f1e0c7a9d3b2a1c4e6f8a90";
+
     @BeforeEach
     void setUp() {
         var reviewList = List.of(
                 new Review(null, 1L, "Awesome Movie", 9.0),
                 new Review(null, 1L, "Awesome Movie1", 9.0),
-                new Review("abc", 2L, "Excellent Movie", 8.0)
+                new Review(REVIEW_ID, 2L, "Excellent Movie", 8.0)
         );
         reviewReactiveRepository.saveAll(reviewList).blockLast();
     }
@@ -42,6 +68,7 @@ class ReviewRouterTest {
     @AfterEach
     void tearDown() {
         reviewReactiveRepository.deleteAll().block();
+        reviewStatsRepository.deleteAll().block();
     }
 
     @Test
@@ -63,6 +90,89 @@ class ReviewRouterTest {
                 });
     }
 
+    @Test
+    void bulkAddReviews() {
+        var body = String.join("\n",
+                "{\"movieInfoId\":3,\"comment\":\"Awesome Movie\",\"rating\":9.0}",
+                "{\"movieInfoId\":3,\"comment\":\"Negative\",\"rating\":-1.0}",
+                "{\"reviewId\":\"" + REVIEW_ID + "\",\"movieInfoId\":3,\"comment\":\"Duplicate\",\"rating\":7.0}",
+                "{\"movieInfoId\":3,\"comment\":\"Good Movie\",\"rating\":7.0}") + "\n";
+
+        var results = webTestClient.post()
+                .uri(REVIEWS_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(ReviewBulkResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .assertNext(result -> {
+                    assertEquals(0L, result.getIndex());
+                    assertEquals(201, result.getStatus());
+                    assertNotNull(result.getReviewId());
+                })
+                .assertNext(result -> {
+                    assertEquals(400, result.getStatus());
+                    assertEquals("rating.negative : please pass a non-negative value", result.getError());
+                })
+                .assertNext(result -> assertEquals(409, result.getStatus()))
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .verifyComplete();
+
+        // 3 from setUp and 2 new ones
+        StepVerifier.create(reviewReactiveRepository.count())
+                .expectNext(5L)
+                .verifyComplete();
+
+        // inserted reviews reach the stats with one upsert
+        StepVerifier.create(reviewStatsRepository.findById(3L))
+                .assertNext(stats -> {
+                    assertEquals(2L, stats.getCount());
+                    assertEquals(16.0, stats.getSum());
+                    assertEquals(7.0, stats.getMin());
+                    assertEquals(9.0, stats.getMax());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void bulkAddReviews_MalformedLine() {
+        var body = String.join("\n",
+                "{\"movieInfoId\":3,\"comment\":\"Awesome Movie\",\"rating\":9.0}",
+                "{\"movieInfoId\":3,\"comment\":",
+                "{\"movieInfoId\":3,\"comment\":\"Good Movie\",\"rating\":7.0}") + "\n";
+
+        var results = webTestClient.post()
+                .uri(REVIEWS_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(ReviewBulkResult.class)
+                .getResponseBody();
+
+        // the broken line gets its own result, the reviews around it are still inserted
+        StepVerifier.create(results)
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .assertNext(result -> {
+                    assertEquals(1L, result.getIndex());
+                    assertEquals(400, result.getStatus());
+                    assertTrue(result.getError().startsWith("Malformed json"));
+                })
+                .assertNext(result -> assertEquals(201, result.getStatus()))
+                .verifyComplete();
+
+        StepVerifier.create(reviewReactiveRepository.count())
+                .expectNext(5L)
+                .verifyComplete();
+    }
+
     @Test
     void getAllReviewsTest() {
 
@@ -75,10 +185,131 @@ class ReviewRouterTest {
                 .hasSize(3);
     }
 
+    @Test
+    void getReviewsPaged() {
+        var seen = new HashSet<String>();
+        String cursor = null;
+        for (int page = 0; page < 2; page++) {
+            var uri = REVIEWS_URL + "?movieInfoId=1&sort=rating&limit=1" + (cursor != null ? "&cursor=" + cursor : "");
+            var result = webTestClient.get()
+                    .uri(uri)
+                    .exchange()
+                    .expectStatus()
+                    .isOk()
+                    .expectHeader().exists(ReviewHandler.NEXT_CURSOR)
+                    .expectBodyList(Review.class)
+                    .hasSize(1)
+                    .returnResult();
+            seen.add(result.getResponseBody().get(0).getReviewId());
+            cursor = result.getResponseHeaders().getFirst(ReviewHandler.NEXT_CURSOR);
+        }
+        assertEquals(2, seen.size());
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1&sort=rating&limit=1&cursor=" + cursor)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().doesNotExist(ReviewHandler.NEXT_CURSOR)
+                .expectBodyList(Review.class)
+                .hasSize(0);
+    }
+
+    @Test
+    void getReviewsSortedByRating() {
+        reviewReactiveRepository.save(new Review(null, 1L, "Bad", 2.0)).block();
+        reviewReactiveRepository.save(new Review(null, 1L, "Best", 10.0)).block();
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1&sort=rating")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(4)
+                .jsonPath("$[0].rating").isEqualTo(10.0)
+                .jsonPath("$[3].rating").isEqualTo(2.0);
+    }
+
+    @Test
+    void getReviewsInvalidPaging() {
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1&cursor=not-a-cursor")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        // rating order without a movie would not be served by an index
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?sort=rating")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void reviewIndexesExist() {
+        var indexNames = reactiveMongoTemplate.indexOps(Review.class).getIndexInfo()
+                .map(IndexInfo::getName)
+                .collectList()
+                .block();
+
+        assertNotNull(indexNames);
+        assertTrue(indexNames.containsAll(List.of("movieInfoId_rating_id", "movieInfoId_id")));
+    }
+
+    @Test
+    void getReviewsSmile() {
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .accept(CodecConfig.APPLICATION_SMILE)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().contentType(CodecConfig.APPLICATION_SMILE)
+                .expectBodyList(Review.class)
+                .hasSize(2);
+    }
+
+    @Test
+    void getReviewsNotModified() {
+        var eTag = webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().exists("Cache-Control")
+                .returnResult(Review.class)
+                .getResponseHeaders()
+                .getETag();
+        assertNotNull(eTag);
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .header("If-None-Match", eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectBody()
+                .isEmpty();
+
+        // new review changes the list and so its ETag
+        reviewReactiveRepository.save(new Review(null, 1L, "Awesome Movie2", 7.0)).block();
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "?movieInfoId=1")
+                .header("If-None-Match", eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(Review.class)
+                .hasSize(3);
+    }
+
     @Test
     void updateReviewInfo() {
         // given
-        var revieId = "abc";
+        var revieId = REVIEW_ID;
         var reviewnew = new Review(null, 1L, "Awesome Movie2", 9.0);
 
         // when
@@ -96,4 +327,116 @@ class ReviewRouterTest {
                     assertEquals("Awesome Movie2", updatedReviewInfo.getComment());
                 });
     }
+
+    @Test
+    void reviewStatsFollowReviewWrites() {
+        // setUp saved its reviews without going through the handler
+        reviewStatsReconciler.reconcile().block();
+
+        var saved = webTestClient.post()
+                .uri(REVIEWS_URL)
+                .bodyValue(new Review(null, 1L, "Weak", 4.5))
+                .exchange()
+                .expectStatus()
+                .isCreated()
+                .expectBody(Review.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(saved);
+
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/stats?movieInfoId=1")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody(ReviewStats.class)
+                .value(stats -> {
+                    assertEquals(3, stats.getCount());
+                    assertEquals(22.5, stats.getSum());
+                    assertEquals(4.5, stats.getMin());
+                    assertEquals(9.0, stats.getMax());
+                    assertEquals(Map.of("4", 1L, "9", 2L), stats.getHistogram());
+                });
+
+        webTestClient.put()
+                .uri(REVIEWS_URL + "/{id}", saved.getReviewId())
+                .bodyValue(new Review(null, 1L, "Not that weak", 6.0))
+                .exchange()
+                .expectStatus()
+                .isOk();
+
+        webTestClient.delete()
+                .uri(REVIEWS_URL + "/{id}", saved.getReviewId())
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+
+        // removed rating was the minimum, it is read from the remaining reviews again
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/stats?movieInfoId=1")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.sum").isEqualTo(18.0)
+                .jsonPath("$.min").isEqualTo(9.0)
+                .jsonPath("$.max").isEqualTo(9.0)
+                .jsonPath("$.average").isEqualTo(9.0)
+                .jsonPath("$.histogram.6").isEqualTo(0);
+    }
+
+    @Test
+    void reviewStatsReconcile() {
+        // stats of a movie without reviews anymore are removed, wrong ones are rebuilt
+        reviewStatsRepository.save(new ReviewStats(3L, 5, 40.0, 7.0, 9.0, Map.of("8", 5L), Instant.EPOCH)).block();
+        reviewStatsRepository.save(new ReviewStats(2L, 7, 1.0, 1.0, 1.0, Map.of("1", 7L), Instant.EPOCH)).block();
+
+        assertEquals(2L, reviewStatsReconciler.reconcile().block());
+
+        assertNull(reviewStatsRepository.findById(3L).block());
+        var stats = reviewStatsRepository.findById(2L).block();
+        assertNotNull(stats);
+        assertEquals(1, stats.getCount());
+        assertEquals(8.0, stats.getSum());
+        assertEquals(Map.of("8", 1L), stats.getHistogram());
+    }
+
+    @Test
+    void reviewStatsReconcileKeepsConcurrentChanges() {
+        // a review write after the reconciler started, its $inc must survive the rebuilt value
+        var start = Instant.now().minusSeconds(60);
+        reviewStatsRepository.save(new ReviewStats(2L, 2, 16.0, 8.0, 8.0, Map.of("8", 2L), Instant.now())).block();
+
+        assertEquals(false, reviewStatsRepository.replaceIfNotUpdatedSince(
+                new ReviewStats(2L, 1, 8.0, 8.0, 8.0, Map.of("8", 1L), Instant.now()), start).block());
+
+        var stats = reviewStatsRepository.findById(2L).block();
+        assertNotNull(stats);
+        assertEquals(2, stats.getCount());
+        assertEquals(16.0, stats.getSum());
+    }
+
+    @Test
+    void reviewStatsOfMovieWithoutReviews() {
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/stats?movieInfoId=42")
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(0)
+                .jsonPath("$.average").doesNotExist();
+    }
+
+    @Test
+    void getReviewsDeadlineExceeded() {
+        // caller has already given up, mongo is not queried at all
+        webTestClient.get()
+                .uri(REVIEWS_URL)
+                .header("X-Request-Timeout", "0")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package com.reactivespring.broadcast;
+
+import com.reactivespring.domain.Review;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+    10k stream subscribers, 10 per movie for 1k movies
+    keyed - every subscriber asks for its movie, the log hands a review only to the 10 subscribers of its movie
+    firehose - every subscriber gets every review and drops the ones of other movies, like the stream before
+    delivery counts are checked with every build, the timing comparison only with ./gradlew benchmark
+ */
+class ReviewDispatchBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewDispatchBenchmarkTest.class);
+
+    private static final int MOVIES = 1_000;
+    private static final int SUBSCRIBERS = 10_000;
+    private static final int REVIEWS = 2_000;
+
+    @Test
+    void keyedDispatchDeliversOnlyToSubscribersOfTheMovie() {
+        var delivered = new AtomicLong();
+        // one review per movie, i * 7 % MOVIES visits every movie once
+        var reviews = MOVIES;
+
+        dispatch(delivered, reviews, keyed(delivered));
+        assertEquals((long) reviews * SUBSCRIBERS / MOVIES, delivered.get());
+
+        delivered.set(0);
+        dispatch(delivered, reviews, firehose(delivered));
+        assertEquals((long) reviews * SUBSCRIBERS / MOVIES, delivered.get());
+    }
+
+    // wall clock comparison, run with ./gradlew benchmark
+    @Test
+    @Tag("benchmark")
+    void keyedDispatchCostsOnlyInterestedSubscribers() {
+        var delivered = new AtomicLong();
+
+        var keyedNanos = dispatch(delivered, REVIEWS, keyed(delivered));
+        delivered.set(0);
+        var firehoseNanos = dispatch(delivered, REVIEWS, firehose(delivered));
+
+        log.info("review dispatch to {} subscribers over {} movies: keyed {} ns/review, firehose {} ns/review",
+                SUBSCRIBERS, MOVIES, keyedNanos, firehoseNanos);
+        assertTrue(keyedNanos < firehoseNanos);
+    }
+
+    private SubscriberFactory keyed(AtomicLong delivered) {
+        return (replayLog, movieInfoId) -> replayLog.subscribe(null, Set.of(movieInfoId))
+                .subscribe(event -> delivered.incrementAndGet());
+    }
+
+    private SubscriberFactory firehose(AtomicLong delivered) {
+        return (replayLog, movieInfoId) -> replayLog.subscribe(null)
+                .filter(event -> event.getReview().getMovieInfoId().equals(movieInfoId))
+                .subscribe(event -> delivered.incrementAndGet());
+    }
+
+    // nanoseconds per appended review
+    private long dispatch(AtomicLong delivered, int reviews, SubscriberFactory subscriberFactory) {
+        // window of 1 so subscribing does not replay anything
+        var replayLog = new ReviewReplayLog(1, Duration.ofMinutes(10), 16);
+        List<Disposable> subscriptions = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            subscriptions.add(subscriberFactory.subscribe(replayLog, (long) (i % MOVIES)));
+        }
+        assertEquals(SUBSCRIBERS, replayLog.subscriberCount());
+
+        // warm up, then count only the measured reviews
+        for (int i = 0; i < reviews; i++) {
+            replayLog.append(new Review("w" + i, (long) (i % MOVIES), "Warm up", 5.0));
+        }
+        delivered.set(0);
+
+        var start = System.nanoTime();
+        for (int i = 0; i < reviews; i++) {
+            replayLog.append(new Review("r" + i, (long) (i * 7 % MOVIES), "Review " + i, 8.0));
+        }
+        var nanosPerReview = (System.nanoTime() - start) / reviews;
+
+        subscriptions.forEach(Disposable::dispose);
+        assertEquals(0, replayLog.subscriberCount());
+        return nanosPerReview;
+    }
+
+    private interface SubscriberFactory {
+        Disposable subscribe(ReviewReplayLog replayLog, Long movieInfoId);
+    }
+}
@@ -0,0 +1,237 @@
+package com.reactivespring.broadcast;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewEvent;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReviewReplayLogTest {
+
+    MutableClock clock = new MutableClock();
+
+    private Review review(int i) {
+        return new Review("id" + i, 1L, "Review " + i, 8.0);
+    }
+
+    private Review review(int i, long movieInfoId) {
+        return new Review("id" + i, movieInfoId, "Review " + i, 8.0);
+    }
+
+    private ReviewEvent.EventId id(ReviewReplayLog replayLog, long sequence) {
+        return new ReviewEvent.EventId(replayLog.epoch(), sequence);
+    }
+
+    private void append(ReviewReplayLog replayLog, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            replayLog.append(review(i));
+        }
+    }
+
+    @Test
+    void lastEventIdReplaysOnlyMissedReviews() {
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(10), 16, clock);
+        append(replayLog, 1, 5);
+
+        StepVerifier.create(replayLog.subscribe(id(replayLog, 3)).map(ReviewEvent::getSequence))
+                .expectNext(4L, 5L)
+                .then(() -> replayLog.append(review(6)))
+                .expectNext(6L)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(0, replayLog.subscriberCount());
+    }
+
+    @Test
+    void withoutLastEventIdWholeWindowIsReplayed() {
+        var replayLog = new ReviewReplayLog(3, Duration.ofMinutes(10), 16, clock);
+        append(replayLog, 1, 5);
+
+        StepVerifier.create(replayLog.subscribe(null).map(ReviewEvent::getSequence))
+                .expectNext(3L, 4L, 5L)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void evictedReviewsAreReportedAsGap() {
+        var replayLog = new ReviewReplayLog(3, Duration.ofMinutes(10), 16, clock);
+        append(replayLog, 1, 6);
+
+        StepVerifier.create(replayLog.subscribe(id(replayLog, 1)))
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.GAP, event.getType());
+                    assertEquals(replayLog.epoch() + "-2", event.getGapFrom());
+                    assertEquals(replayLog.epoch() + "-3", event.getGapTo());
+                })
+                .assertNext(event -> assertEquals(4L, event.getSequence()))
+                .expectNextCount(2)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void reviewsOlderThanMaxAgeAreEvicted() {
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(1), 16, clock);
+        append(replayLog, 1, 2);
+        clock.advance(Duration.ofMinutes(2));
+        append(replayLog, 3, 3);
+
+        assertEquals(1, replayLog.size());
+        StepVerifier.create(replayLog.subscribe(id(replayLog, 0)))
+                .assertNext(event -> assertEquals(ReviewEvent.GAP, event.getType()))
+                .assertNext(event -> assertEquals(3L, event.getSequence()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void lastEventIdFromBeforeRestartGetsGapAndWholeWindow() {
+        var beforeRestart = new ReviewReplayLog(100, Duration.ofMinutes(10), 16, clock);
+        append(beforeRestart, 1, 1);
+        clock.advance(Duration.ofSeconds(30));
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(10), 16, clock);
+        append(replayLog, 1, 2);
+
+        // same sequence, but of the instance before - reviews after it went with the restart
+        StepVerifier.create(replayLog.subscribe(id(beforeRestart, 1)))
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.GAP, event.getType());
+                    assertNull(event.getGapFrom());
+                    assertEquals(replayLog.epoch() + "-0", event.getGapTo());
+                })
+                .assertNext(event -> assertEquals(1L, event.getSequence()))
+                .assertNext(event -> assertEquals(2L, event.getSequence()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void lastEventIdWithoutEpochGetsGapEvenWithEmptyWindow() {
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(10), 16, clock);
+
+        StepVerifier.create(replayLog.subscribe(ReviewEvent.EventId.parse("7")))
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.GAP, event.getType());
+                    assertNull(event.getGapFrom());
+                    assertEquals(replayLog.epoch() + "-0", event.getId());
+                })
+                .then(() -> append(replayLog, 1, 1))
+                .assertNext(event -> assertEquals(replayLog.epoch() + "-1", event.getId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void movieSubscriberGetsOnlyReviewsOfItsMovies() {
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(10), 16, clock);
+        replayLog.append(review(1, 1L));
+        replayLog.append(review(2, 2L));
+        replayLog.append(review(3, 3L));
+
+        StepVerifier.create(replayLog.subscribe(null, Set.of(1L, 3L)).map(ReviewEvent::getSequence))
+                .expectNext(1L, 3L)
+                .then(() -> {
+                    replayLog.append(review(4, 2L));
+                    replayLog.append(review(5, 3L));
+                })
+                .expectNext(5L)
+                .then(() -> assertEquals(1, replayLog.subscriberCount()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(0, replayLog.subscriberCount());
+    }
+
+    @Test
+    void appendAllDispatchesOneBatchWithReviewsOfTheMovie() {
+        var replayLog = new ReviewReplayLog(3, Duration.ofMinutes(10), 16, clock);
+
+        StepVerifier.create(replayLog.subscribe(null, Set.of(2L)))
+                .then(() -> replayLog.appendAll(List.of(review(1, 1L), review(2, 2L), review(3, 1L), review(4, 2L), review(5, 2L))))
+                .assertNext(event -> {
+                    assertEquals(ReviewEvent.REVIEWS, event.getType());
+                    assertEquals(List.of("id2", "id4", "id5"),
+                            event.getReviews().stream().map(Review::getReviewId).collect(Collectors.toList()));
+                    // resuming from the batch continues after all of it
+                    assertEquals(5L, event.getSequence());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        // evicted once for the whole batch
+        assertEquals(3, replayLog.size());
+    }
+
+    @Test
+    void batchLargerThanBufferDoesNotDisconnect() {
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(10), 4, clock);
+        var batch = IntStream.rangeClosed(1, 50).mapToObj(this::review).collect(Collectors.toList());
+
+        StepVerifier.create(replayLog.subscribe(null), 0)
+                .then(() -> replayLog.appendAll(batch))
+                .thenRequest(1)
+                .assertNext(event -> assertEquals(50, event.getReviews().size()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        // batch is replayed one by one
+        StepVerifier.create(replayLog.subscribe(new ReviewEvent.EventId(replayLog.epoch(), 48)).map(ReviewEvent::getSequence))
+                .expectNext(49L, 50L)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void slowSubscriberIsDisconnected() {
+        var replayLog = new ReviewReplayLog(100, Duration.ofMinutes(10), 4, clock);
+
+        StepVerifier.create(replayLog.subscribe(null), 0)
+                .then(() -> append(replayLog, 1, 10))
+                .thenRequest(10)
+                // buffered reviews are still delivered, then the stream ends so the client reconnects
+                .expectNextCount(4)
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(0, replayLog.subscriberCount());
+        assertEquals(10, replayLog.size());
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2022-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
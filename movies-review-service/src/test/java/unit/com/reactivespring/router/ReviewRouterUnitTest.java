@@ -1,9 +1,11 @@
 package com.reactivespring.router;
 
+import com.reactivespring.broadcast.ReviewReplayLog;
 import com.reactivespring.domain.Review;
 import com.reactivespring.exceptionhandler.GlobalErrorHandler;
 import com.reactivespring.handler.ReviewHandler;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,18 +19,22 @@ import reactor.core.publisher.Mono;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.when;
 
 @WebFluxTest
-@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, GlobalErrorHandler.class})   // inject beans automatically because not using controller
+@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, ReviewReplayLog.class, GlobalErrorHandler.class})   // inject beans automatically because not using controller
 @AutoConfigureWebTestClient
 class ReviewRouterUnitTest {
 
     @MockBean
     private ReviewReactiveRepository reviewReactiveRepository;
 
+    @MockBean
+    private ReviewStatsRepository reviewStatsRepository;
+
     @Autowired
     private WebTestClient webTestClient;
 
@@ -40,6 +46,7 @@ class ReviewRouterUnitTest {
 
         when(reviewReactiveRepository.save(isA(Review.class)))
                 .thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.25)));
+        when(reviewStatsRepository.applyRatingChange(1L, null, 9.25)).thenReturn(Mono.empty());
 
         webTestClient.post()
                 .uri(REVIEWS_URL)
@@ -72,12 +79,26 @@ class ReviewRouterUnitTest {
                 .isEqualTo("rating.movieInfoId : must not be null,rating.negative : please pass a non-negative value");
     }
 
+    @Test
+    void addReviewNonObjectIdReviewIdTest() {
+        var reviewnew = new Review("abc", 1L, "Awesome Movie", 9.0);
+
+        webTestClient.post()
+                .uri(REVIEWS_URL)
+                .bodyValue(reviewnew)
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("review.reviewId : must be an ObjectId");
+    }
+
     @Test
     void updateReviewNotFoundExceptionTest() {
         var reviewId = "def";
         var reviewToUpdate = new Review(null, null,"Awesome Movie2", 9.50);
 
-        when(reviewReactiveRepository.findById(anyString())).thenReturn(Mono.empty());
+        when(reviewReactiveRepository.updateReturningPrevious(anyString(), any(), any())).thenReturn(Mono.empty());
 
         webTestClient.put()
                 .uri(REVIEWS_URL + "/{id}", reviewId)
@@ -88,4 +109,15 @@ class ReviewRouterUnitTest {
                 .expectBody(String.class)
                 .isEqualTo("Review not found for the given Review id def");
     }
-}
\ No newline at end of file
+
+    @Test
+    void getReviewStatsWithoutMovieInfoIdTest() {
+        webTestClient.get()
+                .uri(REVIEWS_URL + "/stats")
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("movieInfoId must be present");
+    }
+}
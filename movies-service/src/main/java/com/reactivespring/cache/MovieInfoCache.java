@@ -0,0 +1,163 @@
+package com.reactivespring.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.MoviesInfoServerException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/*
+    near cache in front of movies-info-service
+    entries are fresh for ttl, after that they are stale and kept up to maxStale
+    stale entries are served while they are refreshed in background (if staleWhileRevalidate)
+    and when movies-info-service keeps failing with 5xx after all retries
+ */
+@Component
+@Slf4j
+public class MovieInfoCache {
+
+    private final Cache<String, CachedMovieInfo> cache;
+    private final boolean enabled;
+    private final Duration ttl;
+    private final boolean staleWhileRevalidate;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter staleHits;
+    private final Counter staleOnError;
+
+    public MovieInfoCache(@Value("${restClient.movieInfoCache.enabled:true}") boolean enabled,
+                          @Value("${restClient.movieInfoCache.maxSize:10000}") long maxSize,
+                          @Value("${restClient.movieInfoCache.ttl:PT1M}") Duration ttl,
+                          @Value("${restClient.movieInfoCache.maxStale:PT10M}") Duration maxStale,
+                          @Value("${restClient.movieInfoCache.staleWhileRevalidate:true}") boolean staleWhileRevalidate,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl.plus(maxStale))
+                .<String, CachedMovieInfo>removalListener((movieId, cached, cause) -> {
+                    if (cause.wasEvicted()) {
+                        Counter.builder("movies.client.cache.evictions")
+                                .tag("cache", "movieInfo")
+                                .tag("cause", cause.name().toLowerCase())
+                                .register(meterRegistry)
+                                .increment();
+                    }
+                })
+                .build();
+
+        this.hits = requestCounter(meterRegistry, "hit");
+        this.misses = requestCounter(meterRegistry, "miss");
+        this.staleHits = requestCounter(meterRegistry, "stale");
+        this.staleOnError = requestCounter(meterRegistry, "stale_on_error");
+        Gauge.builder("movies.client.cache.size", cache, Cache::estimatedSize)
+                .tag("cache", "movieInfo")
+                .register(meterRegistry);
+    }
+
+    public Mono<MovieInfo> get(String movieId, Function<String, Mono<MovieInfo>> loader) {
+        if (!enabled) {
+            return loader.apply(movieId);
+        }
+
+        return Mono.defer(() -> {
+            var cached = cache.getIfPresent(movieId);
+            if (cached == null) {
+                misses.increment();
+                return load(movieId, loader, null);
+            }
+            if (cached.isFresh(ttl)) {
+                hits.increment();
+                return Mono.just(cached.getMovieInfo());
+            }
+            if (staleWhileRevalidate) {
+                staleHits.increment();
+                // caller gets the stale copy right away, refresh errors are already handled in load
+                load(movieId, loader, cached).subscribe(
+                        movieInfo -> log.debug("Revalidated movie info {}", movieId),
+                        ex -> log.warn("Revalidation of movie info {} failed: {}", movieId, ex.getMessage()));
+                return Mono.just(cached.getMovieInfo());
+            }
+            misses.increment();
+            return load(movieId, loader, cached);
+        });
+    }
+
+    // movie info pushed by movies-info-service, only entries someone asked for are kept
+    public void update(MovieInfo movieInfo) {
+        if (movieInfo.getMovieInfoId() == null) {
+            return;
+        }
+        cache.asMap().computeIfPresent(movieInfo.getMovieInfoId(),
+                (movieId, cached) -> new CachedMovieInfo(movieInfo));
+    }
+
+    public void invalidate(String movieId) {
+        cache.invalidate(movieId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private Mono<MovieInfo> load(String movieId, Function<String, Mono<MovieInfo>> loader, CachedMovieInfo stale) {
+        return loader.apply(movieId)
+                .doOnNext(movieInfo -> cache.put(movieId, new CachedMovieInfo(movieInfo)))
+                .doOnError(MoviesInfoClientException.class, ex -> {
+                    if (ex.getStatusCode() == HttpStatus.NOT_FOUND.value()) {
+                        cache.invalidate(movieId);
+                    }
+                })
+                // MoviesInfoServerException reaches us only when retrySpec is exhausted
+                // CallNotPermittedException when movies-info circuit is open
+                .onErrorResume(ex -> ex instanceof MoviesInfoServerException || ex instanceof CallNotPermittedException, ex -> {
+                    if (stale == null) {
+                        return Mono.error(ex);
+                    }
+                    log.warn("Serving stale movie info {} because of: {}", movieId, ex.getMessage());
+                    staleOnError.increment();
+                    return Mono.just(stale.getMovieInfo());
+                });
+    }
+
+    private Counter requestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("movies.client.cache.requests")
+                .tag("cache", "movieInfo")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static class CachedMovieInfo {
+
+        private final MovieInfo movieInfo;
+        private final long storedAt = System.nanoTime();
+
+        CachedMovieInfo(MovieInfo movieInfo) {
+            this.movieInfo = movieInfo;
+        }
+
+        MovieInfo getMovieInfo() {
+            return movieInfo;
+        }
+
+        boolean isFresh(Duration ttl) {
+            return System.nanoTime() - storedAt < ttl.toNanos();
+        }
+    }
+}
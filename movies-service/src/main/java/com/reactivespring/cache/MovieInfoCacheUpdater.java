@@ -0,0 +1,68 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+
+/*
+    keeps MovieInfoCache up to date using the /v1/movieInfos/stream feed of movies-info-service
+ */
+@Component
+@Slf4j
+public class MovieInfoCacheUpdater {
+
+    private MoviesInfoRestClient moviesInfoRestClient;
+    private MovieInfoCache movieInfoCache;
+
+    @Value("${restClient.movieInfoCache.streamUpdates:true}")
+    private boolean streamUpdates;
+
+    private Disposable subscription;
+
+    public MovieInfoCacheUpdater(MoviesInfoRestClient moviesInfoRestClient, MovieInfoCache movieInfoCache) {
+        this.moviesInfoRestClient = moviesInfoRestClient;
+        this.movieInfoCache = movieInfoCache;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribe() {
+        if (!streamUpdates) {
+            return;
+        }
+
+        subscription = Flux.defer(() -> {
+                    // updates were missed while we were not connected
+                    movieInfoCache.invalidateAll();
+                    return moviesInfoRestClient.retrieveMovieInfoEvents();
+                })
+                .doOnNext(event -> {
+                    if (MoviesInfoRestClient.MOVIE_INFO_DELETED.equals(event.event())) {
+                        movieInfoCache.invalidate(event.data().getMovieInfoId());
+                    } else {
+                        movieInfoCache.update(event.data());
+                    }
+                })
+                .doOnError(ex -> log.warn("Movie info stream failed, reconnecting: {}", ex.getMessage()))
+                // reconnect forever, the stream is also closed when movies-info-service restarts
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30)))
+                .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void unsubscribe() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
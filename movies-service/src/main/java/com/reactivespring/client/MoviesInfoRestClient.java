@@ -1,47 +1,101 @@
 package com.reactivespring.client;
 
+import com.reactivespring.cache.MovieInfoCache;
+import com.reactivespring.common.codec.CodecConfig;
 import com.reactivespring.domain.Movie;
 import com.reactivespring.domain.MovieInfo;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
+import com.reactivespring.util.ConditionalCache;
+import com.reactivespring.util.HedgeUtil;
 import com.reactivespring.util.RetryUtil;
+import com.reactivespring.util.SingleFlight;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.Retry;
-
-import java.time.Duration;
+import reactor.netty.http.client.HttpClientRequest;
 
 @Component
 @Slf4j
 public class MoviesInfoRestClient {
 
+    public static final String MOVIE_INFO_DELETED = "delete";
+
+    private static final ParameterizedTypeReference<ServerSentEvent<MovieInfo>> MOVIE_INFO_EVENT = new ParameterizedTypeReference<>() {};
+
     private WebClient webClient;
 
+    // concurrent calls for the same movie share one upstream request
+    private SingleFlight<String, MovieInfo> movieInfoCalls;
+
+    private MovieInfoCache movieInfoCache;
+
+    // ETag of the last movie info received per id, survives the near cache ttl
+    private ConditionalCache<String, MovieInfo> movieInfoVersions;
+
+    private RetryUtil retryUtil;
+
+    private HedgeUtil hedgeUtil;
+
+    private CircuitBreaker circuitBreaker;
+
     @Value("${restClient.moviesInfoUrl}")
     private String moviesInfoUrl;
 
-    public MoviesInfoRestClient(WebClient webClient) {
+    // comma separated projection sent as fields=, blank asks for the whole movie info
+    @Value("${restClient.moviesInfoFields:}")
+    private String moviesInfoFields;
+
+    // Smile first, json still accepted from services that do not speak Smile
+    @Value("${restClient.smile:true}")
+    private boolean smile;
+
+    public MoviesInfoRestClient(@Qualifier("moviesInfoWebClient") WebClient webClient,
+                                MovieInfoCache movieInfoCache, RetryUtil retryUtil, HedgeUtil hedgeUtil,
+                                CircuitBreakerRegistry circuitBreakerRegistry, MeterRegistry meterRegistry,
+                                @Value("${restClient.conditional.maxSize:10000}") long conditionalMaxSize) {
         this.webClient = webClient;
+        this.movieInfoCache = movieInfoCache;
+        this.retryUtil = retryUtil;
+        this.hedgeUtil = hedgeUtil;
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(RetryUtil.MOVIES_INFO);
+        this.movieInfoCalls = new SingleFlight<>(RetryUtil.MOVIES_INFO, meterRegistry);
+        this.movieInfoVersions = new ConditionalCache<>(RetryUtil.MOVIES_INFO, conditionalMaxSize, meterRegistry);
     }
 
     public Mono<MovieInfo> retrieveMovieInfo(String movieId) {
+        return movieInfoCache.get(movieId,
+                id -> movieInfoCalls.execute(id, () -> fetchMovieInfo(id)));
+    }
 
-        // on retry exhausted we still want to throw actual exception
-        var retrySpec = Retry.fixedDelay(3, Duration.ofSeconds(1))
-                .filter(ex -> ex instanceof MoviesInfoServerException) // execute retry if 5xx, not for 404
-                .onRetryExhaustedThrow(((retryBackoffSpec, retrySignal) ->
-                        Exceptions.propagate(retrySignal.failure())));
+    private Mono<MovieInfo> fetchMovieInfo(String movieId) {
 
-        var url = moviesInfoUrl.concat("/{id}");
-        return webClient
+        var url = moviesInfoFields.isBlank() ? moviesInfoUrl.concat("/{id}") : moviesInfoUrl.concat("/{id}?fields={fields}");
+        var accept = smile ? new MediaType[]{CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_JSON}
+                : new MediaType[]{MediaType.APPLICATION_JSON};
+
+        // conditional request, 304 reuses the movie info from the previous answer
+        return hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> movieInfoVersions.execute(movieId, eTag -> webClient
                 .get()
-                .uri(url, movieId)
+                .uri(url, movieId, moviesInfoFields)
+                .accept(accept)
+                .headers(headers -> {
+                    if (eTag != null) {
+                        headers.setIfNoneMatch(eTag);
+                    }
+                })
                 .retrieve()
                 .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
                     log.info("Status code is : {}", clientResponse.statusCode().value());
@@ -64,13 +118,22 @@ public class MoviesInfoRestClient {
                                     "Server Exception in MoviesInfoService:  " + responseMessage
                             )));
                 })
-                .bodyToMono(MovieInfo.class)
+                .toEntity(MovieInfo.class)))
                 //.retry(3) // retry call when failure occur
-                .retryWhen(retrySpec)
+                .retryWhen(retryUtil.retrySpec(RetryUtil.MOVIES_INFO))
+                // whole call with its retries counts as one call, open circuit fails fast with CallNotPermittedException
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
                 .log();
     }
 
     public Flux<MovieInfo> retrieveMovieInfoStream() {
+        return retrieveMovieInfoEvents()
+                .filter(event -> !MOVIE_INFO_DELETED.equals(event.event()))
+                .map(ServerSentEvent::data);
+    }
+
+    // insert, update and delete events, a delete carries only the movieInfoId
+    public Flux<ServerSentEvent<MovieInfo>> retrieveMovieInfoEvents() {
 
         var url = moviesInfoUrl.concat("/stream");
 
@@ -79,6 +142,11 @@ public class MoviesInfoRestClient {
         return webClient
                 .get()
                 .uri(url)
+                .httpRequest(httpRequest -> {
+                    // the stream can be idle for a long time, pool response timeout must not close it
+                    HttpClientRequest reactorRequest = httpRequest.getNativeRequest();
+                    reactorRequest.responseTimeout(null);
+                })
                 .retrieve()
                 .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
                     log.info("Status code is : {}", clientResponse.statusCode().value());
@@ -96,9 +164,9 @@ public class MoviesInfoRestClient {
                                     "Server Exception in MoviesInfoService:  " + responseMessage
                             )));
                 })
-                .bodyToFlux(MovieInfo.class)
+                .bodyToFlux(MOVIE_INFO_EVENT)
                 //.retry(3) // retry call when failure occur
-                .retryWhen(RetryUtil.retrySpec())
+                .retryWhen(retryUtil.retrySpec(RetryUtil.MOVIES_INFO))
                 .log();
     }
 }
@@ -1,42 +1,99 @@
 package com.reactivespring.client;
 
+import com.reactivespring.common.codec.CodecConfig;
 import com.reactivespring.domain.Review;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsClientException;
 import com.reactivespring.exception.ReviewsServerException;
+import com.reactivespring.util.ConditionalCache;
+import com.reactivespring.util.HedgeUtil;
 import com.reactivespring.util.RetryUtil;
+import com.reactivespring.util.SingleFlight;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 @Component
 @Slf4j
 public class ReviewsRestClient {
 
     private WebClient webClient;
 
+    // reviews are shared as a complete list, so a caller joining late still gets every review
+    private SingleFlight<String, List<Review>> reviewsCalls;
+
+    // ETag of the last reviews list received per movie
+    private ConditionalCache<String, List<Review>> reviewsVersions;
+
+    private RetryUtil retryUtil;
+
+    private HedgeUtil hedgeUtil;
+
+    private CircuitBreaker circuitBreaker;
+
     @Value("${restClient.reviewsUrl}")
     private String reviewsUrl;
 
-    public ReviewsRestClient(WebClient webClient) {
+    // reviews-service pages its answers, one page of the newest reviews is shown with a movie
+    @Value("${restClient.reviewsLimit:100}")
+    private int reviewsLimit;
+
+    // Smile first, json still accepted from services that do not speak Smile
+    @Value("${restClient.smile:true}")
+    private boolean smile;
+
+    public ReviewsRestClient(@Qualifier("reviewsWebClient") WebClient webClient,
+                             RetryUtil retryUtil, HedgeUtil hedgeUtil,
+                             CircuitBreakerRegistry circuitBreakerRegistry, MeterRegistry meterRegistry,
+                             @Value("${restClient.conditional.maxSize:10000}") long conditionalMaxSize) {
         this.webClient = webClient;
+        this.retryUtil = retryUtil;
+        this.hedgeUtil = hedgeUtil;
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(RetryUtil.REVIEWS);
+        this.reviewsCalls = new SingleFlight<>(RetryUtil.REVIEWS, meterRegistry);
+        this.reviewsVersions = new ConditionalCache<>(RetryUtil.REVIEWS, conditionalMaxSize, meterRegistry);
     }
 
     public Flux<Review> retrieveReviews(String movieId) {
+        return reviewsCalls.execute(movieId, () -> fetchReviews(movieId))
+                .flatMapIterable(reviews -> reviews);
+    }
+
+    private Mono<List<Review>> fetchReviews(String movieId) {
         // building uri with query param
         var url = UriComponentsBuilder.fromHttpUrl(reviewsUrl)
                 .queryParam("movieInfoId", movieId)
+                .queryParam("sort", "recent")
+                .queryParam("limit", reviewsLimit)
                 .buildAndExpand().toUriString();
 
-        return webClient
+        var accept = smile ? new MediaType[]{CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_JSON}
+                : new MediaType[]{MediaType.APPLICATION_JSON};
+
+        // conditional request, 304 reuses the reviews from the previous answer
+        return hedgeUtil.hedge(RetryUtil.REVIEWS, () -> reviewsVersions.execute(movieId, eTag -> webClient
                 .get()
                 .uri(url)
+                .accept(accept)
+                .headers(headers -> {
+                    if (eTag != null) {
+                        headers.setIfNoneMatch(eTag);
+                    }
+                })
                 .retrieve()
                 // if no review found do not throw error... return empty
                 .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
@@ -57,8 +114,10 @@ public class ReviewsRestClient {
                                     "Server Exception in ReviewsService:  " + responseMessage
                             )));
                 })
-                .bodyToFlux(Review.class)
-                .retryWhen(RetryUtil.retrySpec());
+                .toEntityList(Review.class)))
+                .retryWhen(retryUtil.retrySpec(RetryUtil.REVIEWS))
+                // when reviews service is down we fail fast instead of waiting for all retries
+                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
     }
 
 }
@@ -0,0 +1,52 @@
+package com.reactivespring.config;
+
+import com.reactivespring.exception.DeadlineExceededException;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.ReviewsClientException;
+import com.reactivespring.util.RetryUtil;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(RestClientCircuitBreakerProperties.class)
+public class ResilienceConfig {
+
+    @Bean
+    public CircuitBreakerRegistry circuitBreakerRegistry(RestClientCircuitBreakerProperties properties,
+                                                         MeterRegistry meterRegistry) {
+        var registry = CircuitBreakerRegistry.ofDefaults();
+
+        // 4xx means upstream is healthy, only 5xx, timeouts and slow calls count against the circuit
+        // a deadline set by our caller says nothing about upstream health, otherwise any caller with a tiny
+        // X-Request-Timeout could open the circuit for everybody
+        registry.circuitBreaker(RetryUtil.MOVIES_INFO,
+                circuitBreakerConfig(properties.getMoviesInfo(), MoviesInfoClientException.class));
+        registry.circuitBreaker(RetryUtil.REVIEWS,
+                circuitBreakerConfig(properties.getReviews(), ReviewsClientException.class));
+
+        // resilience4j.circuitbreaker.state, .calls, .failure.rate, .slow.call.rate ...
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry;
+    }
+
+    private CircuitBreakerConfig circuitBreakerConfig(RestClientCircuitBreakerProperties.Policy policy,
+                                                      Class<? extends Throwable> ignoredException) {
+        return CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(policy.getSlidingWindowSize())
+                .minimumNumberOfCalls(policy.getMinimumNumberOfCalls())
+                .failureRateThreshold(policy.getFailureRateThreshold())
+                .slowCallRateThreshold(policy.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(policy.getSlowCallDurationThreshold())
+                .waitDurationInOpenState(policy.getWaitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(policy.getPermittedNumberOfCallsInHalfOpenState())
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .ignoreExceptions(ignoredException, DeadlineExceededException.class)
+                .build();
+    }
+}
@@ -0,0 +1,30 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// restClient.circuitBreaker.* - circuit breaker per upstream service
+@Data
+@ConfigurationProperties(prefix = "rest-client.circuit-breaker")
+public class RestClientCircuitBreakerProperties {
+
+    private Policy moviesInfo = new Policy();
+    private Policy reviews = new Policy();
+
+    @Data
+    public static class Policy {
+
+        // circuit opens when failure rate or slow call rate of the last slidingWindowSize calls is over the threshold
+        private int slidingWindowSize = 20;
+        private int minimumNumberOfCalls = 10;
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 80;
+        private Duration slowCallDurationThreshold = Duration.ofSeconds(2);
+
+        // after this time a few calls are let through (half-open) to check if upstream is back
+        private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+        private int permittedNumberOfCallsInHalfOpenState = 3;
+    }
+}
@@ -0,0 +1,32 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// restClient.hedging.* - opt-in hedged GET requests per upstream service
+@Data
+@ConfigurationProperties(prefix = "rest-client.hedging")
+public class RestClientHedgingProperties {
+
+    private Policy moviesInfo = new Policy();
+    private Policy reviews = new Policy();
+
+    @Data
+    public static class Policy {
+
+        private boolean enabled = false;
+        // second request is sent when the first one is slower than this percentile of recent latencies
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(20);
+        // used until we have minSamples latencies
+        private Duration initialDelay = Duration.ofMillis(500);
+        private int minSamples = 100;
+        private int windowSize = 1024;
+
+        // hedges are capped to ~maxRatio of requests, with maxTokens for bursts
+        private double maxRatio = 0.1;
+        private int maxTokens = 10;
+    }
+}
@@ -0,0 +1,36 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// restClient.pool.* - every upstream service gets its own connection pool
+@Data
+@ConfigurationProperties(prefix = "rest-client.pool")
+public class RestClientPoolProperties {
+
+    private Pool moviesInfo = new Pool();
+    private Pool reviews = new Pool();
+
+    @Data
+    public static class Pool {
+
+        private int maxConnections = 100;
+        // requests waiting for a connection, -1 means no limit
+        private int pendingAcquireMaxCount = 500;
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+        // close connections that are idle or old, so we don't reuse connections closed by the server or a load balancer
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+        private Duration evictInBackground = Duration.ofSeconds(30);
+
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        // max time between two reads of a response
+        private Duration responseTimeout = Duration.ofSeconds(5);
+
+        // h2c with fallback to HTTP/1.1
+        private boolean http2 = false;
+        private boolean metrics = true;
+    }
+}
@@ -0,0 +1,29 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// restClient.retry.* - retry policy per upstream service
+@Data
+@ConfigurationProperties(prefix = "rest-client.retry")
+public class RestClientRetryProperties {
+
+    private Policy moviesInfo = new Policy();
+    private Policy reviews = new Policy();
+
+    @Data
+    public static class Policy {
+
+        private int maxRetries = 3;
+        // delay before retry n is random between 0 and min(maxBackoff, minBackoff * 2^n)
+        private Duration minBackoff = Duration.ofMillis(200);
+        private Duration maxBackoff = Duration.ofSeconds(2);
+
+        // every request adds budgetRatio tokens (up to budgetMaxTokens), every retry takes one
+        // so retries are capped to ~budgetRatio of live traffic, with budgetMaxTokens for bursts
+        private double budgetRatio = 0.2;
+        private int budgetMaxTokens = 10;
+    }
+}
@@ -1,14 +1,116 @@
 package com.reactivespring.config;
 
+import com.reactivespring.common.filter.DeadlineWebFilter;
+import com.reactivespring.exception.DeadlineExceededException;
+import com.reactivespring.util.Deadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
 
 @Configuration
+@EnableConfigurationProperties({RestClientPoolProperties.class, RestClientRetryProperties.class,
+        RestClientHedgingProperties.class})
 public class WebClientConfig {
 
+    private static final String ACQUIRE_START = WebClientConfig.class.getName() + ".ACQUIRE_START";
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider moviesInfoConnectionProvider(RestClientPoolProperties properties) {
+        return connectionProvider("movies-info", properties.getMoviesInfo());
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider reviewsConnectionProvider(RestClientPoolProperties properties) {
+        return connectionProvider("reviews", properties.getReviews());
+    }
+
     @Bean
-    public WebClient webClient(WebClient.Builder builder) {
-        return builder.build();
+    public WebClient moviesInfoWebClient(WebClient.Builder builder, RestClientPoolProperties properties,
+                                         ConnectionProvider moviesInfoConnectionProvider, MeterRegistry meterRegistry) {
+        return webClient(builder, "movies-info", properties.getMoviesInfo(), moviesInfoConnectionProvider, meterRegistry);
+    }
+
+    @Bean
+    public WebClient reviewsWebClient(WebClient.Builder builder, RestClientPoolProperties properties,
+                                      ConnectionProvider reviewsConnectionProvider, MeterRegistry meterRegistry) {
+        return webClient(builder, "reviews", properties.getReviews(), reviewsConnectionProvider, meterRegistry);
+    }
+
+    private ConnectionProvider connectionProvider(String name, RestClientPoolProperties.Pool pool) {
+        // metrics(true) publishes reactor.netty.connection.provider.* gauges (total, active, idle, pending connections)
+        return ConnectionProvider.builder(name)
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxLifeTime(pool.getMaxLifeTime())
+                .evictInBackground(pool.getEvictInBackground())
+                .metrics(pool.isMetrics())
+                .build();
+    }
+
+    private WebClient webClient(WebClient.Builder builder, String name, RestClientPoolProperties.Pool pool,
+                                ConnectionProvider connectionProvider, MeterRegistry meterRegistry) {
+        var acquireTimer = Timer.builder("movies.client.pool.acquire.time")
+                .description("Time from sending a request until a connection was acquired for it")
+                .tag("pool", name)
+                .register(meterRegistry);
+
+        var httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) pool.getConnectTimeout().toMillis())
+                .responseTimeout(pool.getResponseTimeout())
+                .doOnRequest((request, connection) -> {
+                    Long acquireStart = request.currentContextView().getOrDefault(ACQUIRE_START, null);
+                    if (acquireStart != null) {
+                        acquireTimer.record(System.nanoTime() - acquireStart, TimeUnit.NANOSECONDS);
+                    }
+                });
+        if (pool.isHttp2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+
+        // builder is a prototype bean, clone so the two clients don't share connectors and filters
+        return builder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(deadlineFilter())
+                .filter(acquireStartFilter())
+                .build();
+    }
+
+    // sends remaining time of the incoming request to upstream service and stops waiting when it is over
+    private ExchangeFilterFunction deadlineFilter() {
+        return (request, next) -> Mono.deferContextual(context -> {
+            if (!context.hasKey(Deadline.class)) {
+                return next.exchange(request);
+            }
+            Deadline deadline = context.get(Deadline.class);
+            if (deadline.isExpired()) {
+                return Mono.error(new DeadlineExceededException("Deadline exceeded before calling " + request.url()));
+            }
+            var requestWithDeadline = ClientRequest.from(request)
+                    .header(DeadlineWebFilter.HEADER, String.valueOf(deadline.remaining().toMillis()))
+                    .build();
+            return next.exchange(requestWithDeadline)
+                    .timeout(deadline.remaining(), Mono.error(() ->
+                            new DeadlineExceededException("Deadline exceeded while calling " + request.url())));
+        });
+    }
+
+    private ExchangeFilterFunction acquireStartFilter() {
+        return (request, next) -> next.exchange(request)
+                .contextWrite(context -> context.put(ACQUIRE_START, System.nanoTime()));
     }
 }
@@ -4,16 +4,30 @@ import com.reactivespring.client.MoviesInfoRestClient;
 import com.reactivespring.client.ReviewsRestClient;
 import com.reactivespring.domain.Movie;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.MovieResult;
+import com.reactivespring.exception.MoviesBatchException;
+import com.reactivespring.exception.MoviesInfoClientException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.LinkedHashSet;
+import java.util.List;
+
 @RestController
 @RequestMapping("/v1/movies")
+@Slf4j
 public class MoviesController {
 
     /*
@@ -26,6 +40,13 @@ public class MoviesController {
     private MoviesInfoRestClient moviesInfoRestClient;
     private ReviewsRestClient reviewsRestClient;
 
+    // max number of movies resolved at the same time for one batch request
+    @Value("${restClient.batch.concurrency:16}")
+    private int batchConcurrency;
+
+    @Value("${restClient.batch.maxIds:200}")
+    private int batchMaxIds;
+
     public MoviesController(MoviesInfoRestClient moviesInfoRestClient, ReviewsRestClient reviewsRestClient) {
         this.moviesInfoRestClient = moviesInfoRestClient;
         this.reviewsRestClient = reviewsRestClient;
@@ -33,18 +54,23 @@ public class MoviesController {
 
     @GetMapping("/{id}")
     public Mono<Movie> retrieveMovieById(@PathVariable("id") String movieId) {
+        return retrieveMovie(movieId);
+    }
 
-        // any type we are dealing with transformation that returning reactive type we use flatmap
-        // e.g. calling function that returns Mono<Object> - Flux<Object>
-        return moviesInfoRestClient.retrieveMovieInfo(movieId)
-                .flatMap(movieInfo -> {
-                    var reviewsListMono = reviewsRestClient.retrieveReviews(movieId)
-                            .collectList();
+    /*
+        GET /v1/movies?ids=1,2,3&order=request
+        every line of the response is one MovieResult, failures are reported per id
+     */
+    @GetMapping(params = "ids", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieResult> retrieveMoviesByIds(@RequestParam("ids") List<String> movieIds,
+                                                 @RequestParam(value = "order", defaultValue = "completion") String order) {
+        return retrieveMovies(movieIds, order);
+    }
 
-                    return reviewsListMono.map(reviews -> {
-                        return new Movie(movieInfo, reviews);
-                    });
-                });
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MovieResult> retrieveMoviesBatch(@RequestBody List<String> movieIds,
+                                                 @RequestParam(value = "order", defaultValue = "completion") String order) {
+        return retrieveMovies(movieIds, order);
     }
 
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
@@ -57,4 +83,57 @@ public class MoviesController {
        return moviesInfoRestClient.retrieveMovieInfoStream();
     }
 
+    private Mono<Movie> retrieveMovie(String movieId) {
+        // both calls are subscribed at the same time, so latency is max(info, reviews) instead of the sum
+        // zip cancels the other call as soon as one of them fails (e.g. 404 for movie info cancels reviews call)
+        var movieInfoMono = moviesInfoRestClient.retrieveMovieInfo(movieId);
+        var reviewsListMono = reviewsRestClient.retrieveReviews(movieId)
+                .collectList()
+                .map(reviews -> new Movie(null, reviews))
+                // reviews circuit is open - movie without reviews is better than no movie at all
+                .onErrorResume(CallNotPermittedException.class, ex -> {
+                    log.warn("Reviews are not available for movie {}: {}", movieId, ex.getMessage());
+                    return Mono.just(new Movie(null, List.of(), true));
+                });
+
+        return Mono.zip(movieInfoMono, reviewsListMono,
+                (movieInfo, movie) -> {
+                    movie.setMovieInfo(movieInfo);
+                    return movie;
+                });
+    }
+
+    private Flux<MovieResult> retrieveMovies(List<String> movieIds, String order) {
+        // duplicated ids are resolved only once
+        var ids = new LinkedHashSet<>(movieIds);
+        if (ids.isEmpty() || ids.size() > batchMaxIds) {
+            return Flux.error(new MoviesBatchException(
+                    "Number of ids must be between 1 and " + batchMaxIds + ", but was " + ids.size()));
+        }
+
+        var idsFlux = Flux.fromIterable(ids);
+        switch (order) {
+            case "completion":
+                // results are written as soon as they are ready
+                return idsFlux.flatMap(this::retrieveMovieResult, batchConcurrency);
+            case "request":
+                // same concurrency, but faster results wait for the slower ones requested before them
+                return idsFlux.flatMapSequential(this::retrieveMovieResult, batchConcurrency);
+            default:
+                return Flux.error(new MoviesBatchException(
+                        "Invalid order: " + order + ", expected completion or request"));
+        }
+    }
+
+    private Mono<MovieResult> retrieveMovieResult(String movieId) {
+        // failure of one movie must not fail the whole batch
+        return retrieveMovie(movieId)
+                .map(movie -> MovieResult.success(movieId, movie))
+                .onErrorResume(MoviesInfoClientException.class, ex ->
+                        Mono.just(MovieResult.failure(movieId, ex.getStatusCode(), ex.getMessage())))
+                .onErrorResume(CallNotPermittedException.class, ex ->
+                        Mono.just(MovieResult.failure(movieId, HttpStatus.SERVICE_UNAVAILABLE.value(), ex.getMessage())))
+                .onErrorResume(ex ->
+                        Mono.just(MovieResult.failure(movieId, HttpStatus.INTERNAL_SERVER_ERROR.value(), ex.getMessage())));
+    }
 }
@@ -0,0 +1,25 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieResult {
+
+    // one line of the batch response, either movie or error is set
+    private String movieId;
+    private Movie movie;
+    private Integer status;
+    private String error;
+
+    public static MovieResult success(String movieId, Movie movie) {
+        return new MovieResult(movieId, movie, 200, null);
+    }
+
+    public static MovieResult failure(String movieId, Integer status, String error) {
+        return new MovieResult(movieId, null, status, error);
+    }
+}
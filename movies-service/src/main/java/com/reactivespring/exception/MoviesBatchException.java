@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class MoviesBatchException extends RuntimeException{
+    private String message;
+
+    public MoviesBatchException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,61 @@
+package com.reactivespring.filter;
+
+import com.reactivespring.util.Deadline;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static com.reactivespring.common.filter.DeadlineWebFilter.HEADER;
+
+/*
+    every request gets a deadline, from X-Request-Timeout header (milliseconds) or from deadline.budget
+    when it passes, the whole request is cancelled - including upstream calls that are still running
+ */
+@Component
+@Slf4j
+public class DeadlineWebFilter implements WebFilter {
+
+    @Value("${deadline.budget:PT10S}")
+    private Duration budget;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        // streams are open as long as the client wants them
+        if (exchange.getRequest().getPath().value().endsWith("/stream")) {
+            return chain.filter(exchange);
+        }
+
+        var deadline = Deadline.after(requestBudget(exchange));
+        if (deadline.isExpired()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Deadline exceeded before processing"));
+        }
+
+        return chain.filter(exchange)
+                .timeout(deadline.remaining(), Mono.error(() ->
+                        new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Deadline exceeded")))
+                .contextWrite(context -> context.put(Deadline.class, deadline));
+    }
+
+    // caller can only make the budget smaller
+    private Duration requestBudget(ServerWebExchange exchange) {
+        var header = exchange.getRequest().getHeaders().getFirst(HEADER);
+        if (header == null) {
+            return budget;
+        }
+        try {
+            var requested = Duration.ofMillis(Long.parseLong(header.trim()));
+            return requested.compareTo(budget) < 0 ? requested : budget;
+        } catch (NumberFormatException ex) {
+            log.warn("Ignoring invalid {} header: {}", HEADER, header);
+            return budget;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.reactivespring.globarerrorhandler;
 
+import com.reactivespring.exception.DeadlineExceededException;
+import com.reactivespring.exception.MoviesBatchException;
 import com.reactivespring.exception.MoviesInfoClientException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -17,6 +20,24 @@ public class GlobarErrorHandler {
         return ResponseEntity.status(exception.getStatusCode()).body(exception.getMessage());
     }
 
+    @ExceptionHandler
+    public ResponseEntity<String> handleBatchException(MoviesBatchException exception)  {
+        log.error("Exception Caught in handleBatchException : {}", exception.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(exception.getMessage());
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<String> handleCircuitOpenException(CallNotPermittedException exception)  {
+        log.error("Exception Caught in handleCircuitOpenException : {}", exception.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(exception.getMessage());
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<String> handleDeadlineExceededException(DeadlineExceededException exception)  {
+        log.error("Exception Caught in handleDeadlineExceededException : {}", exception.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(exception.getMessage());
+    }
+
     @ExceptionHandler
     public ResponseEntity<String> handleServerException(RuntimeException exception)  {
         log.error("Exception Caught in handleServerException : {}", exception.getMessage());
@@ -0,0 +1,81 @@
+package com.reactivespring.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/*
+    last body an upstream sent for a key together with its ETag
+    next call for the key sends it as If-None-Match, on 304 the stored body is reused instead of downloaded again
+ */
+public class ConditionalCache<K, V> {
+
+    private final Cache<K, Validated<V>> cache;
+
+    private final Counter notModified;
+    private final Counter modified;
+
+    public ConditionalCache(String upstream, long maxSize, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+        this.notModified = Counter.builder("movies.client.conditional.requests")
+                .description("Conditional requests answered with 304, stored body was reused")
+                .tag("upstream", upstream)
+                .tag("result", "not_modified")
+                .register(meterRegistry);
+        this.modified = Counter.builder("movies.client.conditional.requests")
+                .description("Requests answered with a full body")
+                .tag("upstream", upstream)
+                .tag("result", "modified")
+                .register(meterRegistry);
+    }
+
+    // upstreamCall gets the ETag to send as If-None-Match, null when nothing is stored for the key
+    public Mono<V> execute(K key, Function<String, Mono<ResponseEntity<V>>> upstreamCall) {
+        return Mono.defer(() -> {
+            // the entry the request was validated against, it can be evicted before the 304 arrives
+            var stored = cache.getIfPresent(key);
+            return upstreamCall.apply(stored != null ? stored.eTag : null)
+                    .mapNotNull(response -> {
+                        if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && stored != null) {
+                            notModified.increment();
+                            return stored.value;
+                        }
+                        modified.increment();
+                        var eTag = response.getHeaders().getETag();
+                        if (response.getStatusCode().is2xxSuccessful() && eTag != null && response.getBody() != null) {
+                            cache.put(key, new Validated<>(eTag, response.getBody()));
+                        } else {
+                            cache.invalidate(key);
+                        }
+                        return response.getBody();
+                    });
+        });
+    }
+
+    public void invalidate(K key) {
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static class Validated<V> {
+
+        private final String eTag;
+        private final V value;
+
+        Validated(String eTag, V value) {
+            this.eTag = eTag;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.reactivespring.util;
+
+import java.time.Duration;
+
+/*
+    point in time after which nobody waits for the response anymore
+    it is kept in reactor context and sent to upstream services as remaining milliseconds in
+    X-Request-Timeout (the header the common DeadlineWebFilter of the upstream services reads)
+ */
+public class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    public Duration remaining() {
+        var remaining = deadlineNanos - System.nanoTime();
+        return remaining > 0 ? Duration.ofNanos(remaining) : Duration.ZERO;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+}
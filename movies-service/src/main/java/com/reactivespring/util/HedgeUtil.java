@@ -0,0 +1,126 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientHedgingProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/*
+    hedged requests - if the first attempt is slower than the configured percentile,
+    an identical second attempt is sent and whichever answers first wins, the other one is cancelled
+    a failed attempt does not win, the error is returned only when neither attempt succeeds
+    use only for idempotent calls
+ */
+@Component
+public class HedgeUtil {
+
+    private final Map<String, UpstreamHedging> upstreams;
+
+    public HedgeUtil(RestClientHedgingProperties properties, MeterRegistry meterRegistry) {
+        this.upstreams = Map.of(
+                RetryUtil.MOVIES_INFO, new UpstreamHedging(RetryUtil.MOVIES_INFO, properties.getMoviesInfo(), meterRegistry),
+                RetryUtil.REVIEWS, new UpstreamHedging(RetryUtil.REVIEWS, properties.getReviews(), meterRegistry));
+    }
+
+    public <T> Mono<T> hedge(String upstream, Supplier<Mono<T>> attempt) {
+        var hedging = upstreams.get(upstream);
+        if (!hedging.policy.isEnabled()) {
+            return Mono.defer(attempt);
+        }
+
+        return Mono.defer(() -> {
+            hedging.budget.onRequest();
+
+            // primary failed before the hedge was due - nothing is racing, its error is the answer right away
+            var primaryError = new AtomicReference<Throwable>();
+            var primaryFailed = Sinks.<Boolean>one();
+
+            var primary = answer(hedging.timed(attempt))
+                    .doOnError(error -> {
+                        primaryError.set(error);
+                        primaryFailed.tryEmitValue(true);
+                    });
+            var hedge = Mono.delay(hedging.delay())
+                    .takeUntilOther(primaryFailed.asMono())
+                    .flatMap(tick -> {
+                        if (!hedging.budget.tryAcquire()) {
+                            hedging.suppressed.increment();
+                            // no value, so the primary attempt decides the result
+                            return Mono.<Signal<T>>empty();
+                        }
+                        hedging.fired.increment();
+                        return answer(hedging.timed(attempt)
+                                .doOnSuccess(value -> hedging.won.increment()));
+                    });
+
+            // first answer (value or empty) wins and the loser is cancelled
+            // an error never wins the race, it is returned only when no attempt answered
+            return Mono.firstWithValue(primary, hedge)
+                    .onErrorMap(NoSuchElementException.class, error -> primaryError.get() != null ? primaryError.get() : error)
+                    .<T>dematerialize();
+        });
+    }
+
+    // value and empty completion become a value, so firstWithValue treats an empty answer as an answer too
+    private static <T> Mono<Signal<T>> answer(Mono<T> attempt) {
+        return attempt.materialize()
+                .flatMap(signal -> signal.isOnError() ? Mono.error(signal.getThrowable()) : Mono.just(signal));
+    }
+
+    private static class UpstreamHedging {
+
+        private final RestClientHedgingProperties.Policy policy;
+        private final LatencyWindow latencies;
+        private final RequestBudget budget;
+        private final Counter fired;
+        private final Counter won;
+        private final Counter suppressed;
+
+        UpstreamHedging(String upstream, RestClientHedgingProperties.Policy policy, MeterRegistry meterRegistry) {
+            this.policy = policy;
+            this.latencies = new LatencyWindow(policy.getWindowSize(), policy.getPercentile());
+            this.budget = new RequestBudget(policy.getMaxRatio(), policy.getMaxTokens());
+            this.fired = counter(meterRegistry, upstream, "fired");
+            this.won = counter(meterRegistry, upstream, "won");
+            this.suppressed = counter(meterRegistry, upstream, "suppressed");
+            Gauge.builder("movies.client.hedges.delay", this, hedging -> hedging.delay().toMillis())
+                    .tag("upstream", upstream)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+
+        Duration delay() {
+            var percentileNanos = latencies.percentileNanos();
+            if (latencies.count() < policy.getMinSamples() || percentileNanos < 0) {
+                return policy.getInitialDelay();
+            }
+            var delay = Duration.ofNanos(percentileNanos);
+            return delay.compareTo(policy.getMinDelay()) < 0 ? policy.getMinDelay() : delay;
+        }
+
+        <T> Mono<T> timed(Supplier<Mono<T>> attempt) {
+            return Mono.defer(() -> {
+                var start = System.nanoTime();
+                return attempt.get()
+                        .doOnSuccess(value -> latencies.record(System.nanoTime() - start));
+            });
+        }
+
+        private static Counter counter(MeterRegistry meterRegistry, String upstream, String outcome) {
+            return Counter.builder("movies.client.hedges")
+                    .tag("upstream", upstream)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+    }
+}
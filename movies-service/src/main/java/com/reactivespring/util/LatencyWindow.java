@@ -0,0 +1,52 @@
+package com.reactivespring.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    keeps the last windowSize latencies, percentiles are recomputed every REFRESH_EVERY samples
+ */
+public class LatencyWindow {
+
+    private static final int REFRESH_EVERY = 64;
+
+    private final AtomicLongArray samples;
+    private final AtomicLong count = new AtomicLong();
+    private final double percentile;
+
+    private volatile long cachedPercentileNanos = -1;
+
+    public LatencyWindow(int windowSize, double percentile) {
+        this.samples = new AtomicLongArray(windowSize);
+        this.percentile = percentile;
+    }
+
+    public void record(long nanos) {
+        var index = count.getAndIncrement();
+        samples.set((int) (index % samples.length()), nanos);
+        if ((index + 1) % REFRESH_EVERY == 0) {
+            cachedPercentileNanos = compute();
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    // -1 until the first refresh
+    public long percentileNanos() {
+        return cachedPercentileNanos;
+    }
+
+    private long compute() {
+        var size = (int) Math.min(count.get(), samples.length());
+        var copy = new long[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = samples.get(i);
+        }
+        Arrays.sort(copy);
+        var rank = (int) Math.ceil(percentile * size) - 1;
+        return copy[Math.max(0, Math.min(rank, size - 1))];
+    }
+}
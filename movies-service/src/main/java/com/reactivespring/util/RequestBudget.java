@@ -0,0 +1,44 @@
+package com.reactivespring.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    token bucket that allows extra calls (retries, hedges) for a fraction of the live traffic
+    every request deposits ratio tokens, every extra call withdraws one token
+ */
+public class RequestBudget {
+
+    // tokens are stored in thousandths so ratios like 0.2 can be deposited
+    private static final long SCALE = 1000;
+
+    private final long capacity;
+    private final long deposit;
+    private final AtomicLong tokens;
+
+    public RequestBudget(double ratio, int maxTokens) {
+        this.capacity = maxTokens * SCALE;
+        this.deposit = Math.round(ratio * SCALE);
+        // start full so a cold instance can still retry
+        this.tokens = new AtomicLong(capacity);
+    }
+
+    public void onRequest() {
+        tokens.accumulateAndGet(deposit, (current, amount) -> Math.min(capacity, current + amount));
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            var current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    public double available() {
+        return (double) tokens.get() / SCALE;
+    }
+}
@@ -1,20 +1,91 @@
 package com.reactivespring.util;
 
+import com.reactivespring.config.RestClientRetryProperties;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsServerException;
-import reactor.core.Exceptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
+@Component
 public class RetryUtil {
 
-    public static Retry retrySpec() {
-        // on retry exhausted we still want to throw actual exception
-        return Retry.fixedDelay(3, Duration.ofSeconds(1))
-                .filter(ex -> ex instanceof MoviesInfoServerException ||
-                        ex instanceof ReviewsServerException) // execute retry if 5xx, not for 404
-                .onRetryExhaustedThrow(((retryBackoffSpec, retrySignal) ->
-                        Exceptions.propagate(retrySignal.failure())));
+    public static final String MOVIES_INFO = "movies-info";
+    public static final String REVIEWS = "reviews";
+
+    private final Map<String, UpstreamRetry> upstreams;
+
+    public RetryUtil(RestClientRetryProperties properties, MeterRegistry meterRegistry) {
+        this.upstreams = Map.of(
+                MOVIES_INFO, new UpstreamRetry(MOVIES_INFO, properties.getMoviesInfo(), meterRegistry),
+                REVIEWS, new UpstreamRetry(REVIEWS, properties.getReviews(), meterRegistry));
+    }
+
+    public Retry retrySpec(String upstream) {
+        var retry = upstreams.get(upstream);
+
+        return Retry.from(retrySignals -> {
+            // called once per subscription, so every request (not every retry) adds to the budget
+            retry.budget.onRequest();
+
+            return retrySignals.concatMap(retrySignal -> {
+                // on retry exhausted we still want to throw actual exception
+                var failure = retrySignal.failure();
+                if (!isRetryable(failure) || retrySignal.totalRetries() >= retry.policy.getMaxRetries()) {
+                    return Mono.error(failure);
+                }
+                if (!retry.budget.tryAcquire()) {
+                    // upstream is failing for a big part of the traffic, retrying would only add load
+                    retry.suppressed.increment();
+                    return Mono.error(failure);
+                }
+                retry.attempted.increment();
+                return Mono.delay(backoff(retry.policy, retrySignal.totalRetries()));
+            });
+        });
+    }
+
+    // execute retry if 5xx, not for 404
+    private boolean isRetryable(Throwable ex) {
+        return ex instanceof MoviesInfoServerException ||
+                ex instanceof ReviewsServerException;
+    }
+
+    // exponential backoff with full jitter, so failing requests don't retry in lockstep
+    private Duration backoff(RestClientRetryProperties.Policy policy, long retry) {
+        var exponent = Math.min(retry, 30);
+        var ceiling = Math.min(policy.getMaxBackoff().toMillis(), policy.getMinBackoff().toMillis() * (1L << exponent));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private static class UpstreamRetry {
+
+        private final RestClientRetryProperties.Policy policy;
+        private final RequestBudget budget;
+        private final Counter attempted;
+        private final Counter suppressed;
+
+        UpstreamRetry(String upstream, RestClientRetryProperties.Policy policy, MeterRegistry meterRegistry) {
+            this.policy = policy;
+            this.budget = new RequestBudget(policy.getBudgetRatio(), policy.getBudgetMaxTokens());
+            this.attempted = Counter.builder("movies.client.retries")
+                    .tag("upstream", upstream)
+                    .tag("outcome", "attempted")
+                    .register(meterRegistry);
+            this.suppressed = Counter.builder("movies.client.retries")
+                    .tag("upstream", upstream)
+                    .tag("outcome", "suppressed")
+                    .register(meterRegistry);
+            Gauge.builder("movies.client.retries.budget", budget, RequestBudget::available)
+                    .tag("upstream", upstream)
+                    .register(meterRegistry);
+        }
     }
 }
@@ -0,0 +1,74 @@
+package com.reactivespring.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/*
+    collapses concurrent calls for the same key into one upstream call
+    all callers get the same value or error, the upstream call is cancelled only when every caller has left
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter leaderCalls;
+    private final Counter collapsedCalls;
+
+    public SingleFlight(String upstream, MeterRegistry meterRegistry) {
+        this.leaderCalls = Counter.builder("movies.client.singleflight.calls")
+                .description("Calls that opened a new upstream request")
+                .tag("upstream", upstream)
+                .tag("result", "leader")
+                .register(meterRegistry);
+        this.collapsedCalls = Counter.builder("movies.client.singleflight.calls")
+                .description("Calls that joined an upstream request already in flight")
+                .tag("upstream", upstream)
+                .tag("result", "collapsed")
+                .register(meterRegistry);
+    }
+
+    public Mono<V> execute(K key, Supplier<Mono<V>> upstreamCall) {
+        return Mono.defer(() -> {
+            var existing = inFlight.get(key);
+            if (existing != null) {
+                collapsedCalls.increment();
+                return existing;
+            }
+
+            var candidate = share(key, upstreamCall);
+            existing = inFlight.putIfAbsent(key, candidate);
+            if (existing != null) {
+                // another caller won the race, nothing was subscribed for candidate yet
+                collapsedCalls.increment();
+                return existing;
+            }
+            leaderCalls.increment();
+            return candidate;
+        });
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private Mono<V> share(K key, Supplier<Mono<V>> upstreamCall) {
+        var self = new AtomicReference<Mono<V>>();
+
+        // refCount(1) keeps the upstream call alive as long as at least one caller is subscribed
+        // remove(key, value) so a finished call never removes a newer call for the same key
+        var shared = Mono.defer(upstreamCall)
+                .doFinally(signalType -> inFlight.remove(key, self.get()))
+                .flux()
+                .publish()
+                .refCount(1)
+                .next();
+        self.set(shared);
+        return shared;
+    }
+}
@@ -1,15 +1,36 @@
 package com.reactivespring.controller;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.reactivespring.cache.MovieInfoCache;
+import com.reactivespring.client.MoviesInfoRestClient;
 import com.reactivespring.domain.Movie;
+import com.reactivespring.domain.MovieResult;
+import com.reactivespring.exception.DeadlineExceededException;
+import com.reactivespring.util.Deadline;
+import com.reactivespring.util.RetryUtil;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -21,14 +42,33 @@ import static org.junit.jupiter.api.Assertions.*;
 @TestPropertySource(    // overriding properties when running tests
         properties = {
                 "restClient.moviesInfoUrl=http://localhost:8084/v1/movieInfos",
-                "restClient.reviewsUrl=http://localhost:8084/v1/reviews"
+                "restClient.reviewsUrl=http://localhost:8084/v1/reviews",
+                "restClient.movieInfoCache.streamUpdates=false"
         }
 )
 class MoviesControllerTest {
 
+    private static final Logger log = LoggerFactory.getLogger(MoviesControllerTest.class);
+
     @Autowired
     WebTestClient webTestClient;
 
+    @Autowired
+    MovieInfoCache movieInfoCache;
+
+    @Autowired
+    CircuitBreakerRegistry circuitBreakerRegistry;
+
+    @Autowired
+    MoviesInfoRestClient moviesInfoRestClient;
+
+    @BeforeEach
+    void setUp() {
+        // every test stubs its own movie info responses
+        movieInfoCache.invalidateAll();
+        circuitBreakerRegistry.getAllCircuitBreakers().forEach(CircuitBreaker::reset);
+    }
+
     /*
         in order to create a response from a http call - STUB - stubFor()
     */
@@ -61,6 +101,292 @@ class MoviesControllerTest {
     }
 
 
+    // wall clock percentiles, run with ./gradlew benchmark
+    @Test
+    @Tag("benchmark")
+    void retrieveMovieById_latency() {
+        // both upstreams answer slowly, sequential calls would take at least infoDelay + reviewsDelay
+        var movieId = "abc";
+        var infoDelay = 400;
+        var reviewsDelay = 400;
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")
+                                .withFixedDelay(infoDelay)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")
+                        .withFixedDelay(reviewsDelay)));
+
+        // warm up connections and JIT before measuring
+        for (int i = 0; i < 3; i++) {
+            callRetrieveMovieById(movieId);
+        }
+
+        var samples = new ArrayList<Long>();
+        for (int i = 0; i < 20; i++) {
+            var start = System.nanoTime();
+            callRetrieveMovieById(movieId);
+            samples.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        Collections.sort(samples);
+        var p50 = samples.get(samples.size() / 2);
+        var p99 = samples.get((int) Math.ceil(samples.size() * 0.99) - 1);
+        log.info("retrieveMovieById latency p50: {}ms, p99: {}ms, sequential lower bound: {}ms",
+                p50, p99, infoDelay + reviewsDelay);
+
+        assertTrue(p50 < infoDelay + reviewsDelay);
+        assertTrue(p99 < infoDelay + reviewsDelay);
+    }
+
+    private void callRetrieveMovieById(String movieId) {
+        // measure the upstream calls, not the near cache
+        movieInfoCache.invalidateAll();
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void retrieveMovieById_cached() {
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        callRetrieveMovieByIdCached(movieId);
+        callRetrieveMovieByIdCached(movieId);
+
+        // second movie info comes from the near cache, reviews are not cached
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieInfos" + "/" + movieId)));
+        WireMock.verify(2, getRequestedFor(urlPathEqualTo("/v1/reviews")));
+    }
+
+    @Test
+    void retrieveMovieById_notModified() {
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withHeader("ETag", "\"info-v1\"")
+                                .withBodyFile("movieinfo.json")));
+        // added later so it wins when the request is conditional
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .withHeader("If-None-Match", equalTo("\"info-v1\""))
+                .willReturn(aResponse().withStatus(HttpStatus.NOT_MODIFIED.value())));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"reviews-v1\"")
+                        .withBodyFile("reviews.json")));
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withHeader("If-None-Match", equalTo("\"reviews-v1\""))
+                .willReturn(aResponse().withStatus(HttpStatus.NOT_MODIFIED.value())));
+
+        callRetrieveMovieByIdCached(movieId);
+        // near cache would answer without asking movies-info-service at all
+        movieInfoCache.invalidateAll();
+
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult -> {
+                    var movie = movieEntityExchangeResult.getResponseBody();
+                    assertNotNull(movie);
+                    assertEquals("Vruc vetar", movie.getMovieInfo().getName());
+                    assertEquals(3, movie.getReviewList().size());
+                });
+
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .withHeader("If-None-Match", equalTo("\"info-v1\"")));
+        WireMock.verify(1, getRequestedFor(urlPathEqualTo("/v1/reviews"))
+                .withHeader("If-None-Match", equalTo("\"reviews-v1\"")));
+    }
+
+    private void callRetrieveMovieByIdCached(String movieId) {
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult ->
+                        assertEquals("Vruc vetar", movieEntityExchangeResult.getResponseBody().getMovieInfo().getName()));
+    }
+
+    @Test
+    void retrieveMovieById_reviewsCircuitOpen() {
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        circuitBreakerRegistry.circuitBreaker("reviews").transitionToOpenState();
+
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(movieEntityExchangeResult -> {
+                    var movie = movieEntityExchangeResult.getResponseBody();
+                    assertNotNull(movie);
+                    assertEquals("Vruc vetar", movie.getMovieInfo().getName());
+                    assertEquals(0, movie.getReviewList().size());
+                    assertTrue(movie.isReviewsUnavailable());
+                });
+
+        // open circuit fails fast without calling reviews service
+        WireMock.verify(0, getRequestedFor(urlPathEqualTo("/v1/reviews")));
+    }
+
+    @Test
+    void retrieveMovieById_deadlineExceeded() {
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")
+                                .withFixedDelay(2000)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .header("X-Request-Timeout", "300")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+
+        // upstream services get the remaining time, so they can stop working for us as well
+        WireMock.verify(getRequestedFor(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .withHeader("X-Request-Timeout", matching("\\d+")));
+    }
+
+    @Test
+    void retrieveMovieById_shortDeadlinesDoNotOpenCircuit() {
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieInfos" + "/" + movieId))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")
+                                .withFixedDelay(300)));
+
+        // straight on the client, through the controller the request deadline filter could cancel the call first
+        // and the circuit breaker would never see the DeadlineExceededException
+        // more than minimumNumberOfCalls, every one of them would be a failure if deadlines counted
+        for (int i = 0; i < 12; i++) {
+            movieInfoCache.invalidateAll();
+            StepVerifier.create(moviesInfoRestClient.retrieveMovieInfo(movieId)
+                            .contextWrite(context -> context.put(Deadline.class, Deadline.after(Duration.ofMillis(20)))))
+                    .expectError(DeadlineExceededException.class)
+                    .verify(Duration.ofSeconds(5));
+        }
+
+        var circuitBreaker = circuitBreakerRegistry.circuitBreaker(RetryUtil.MOVIES_INFO);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+    @Test
+    void retrieveMoviesByIds() {
+        stubFor(get(urlEqualTo("/v1/movieInfos/abc"))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")
+                                .withFixedDelay(300))); // slower than def, but still first in request order
+
+        stubFor(get(urlEqualTo("/v1/movieInfos/def"))
+                .willReturn(
+                        aResponse()
+                                .withStatus(404)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        webTestClient.get()
+                .uri("/v1/movies?ids={ids}&order=request", "abc,def")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(MovieResult.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    var results = listEntityExchangeResult.getResponseBody();
+                    assertNotNull(results);
+                    assertEquals(2, results.size());
+
+                    assertEquals("abc", results.get(0).getMovieId());
+                    assertEquals(200, results.get(0).getStatus());
+                    assertEquals("Vruc vetar", results.get(0).getMovie().getMovieInfo().getName());
+
+                    // failure of one id is reported inline
+                    assertEquals("def", results.get(1).getMovieId());
+                    assertEquals(404, results.get(1).getStatus());
+                    assertNull(results.get(1).getMovie());
+                });
+    }
+
+    @Test
+    void retrieveMoviesBatch() {
+        stubFor(get(urlPathMatching("/v1/movieInfos/.*"))
+                .willReturn(
+                        aResponse()
+                                .withHeader("Content-Type", "application/json")
+                                .withBodyFile("movieinfo.json")));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        webTestClient.post()
+                .uri("/v1/movies/batch")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .bodyValue(List.of("abc", "def", "ghi", "abc"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(MovieResult.class)
+                .hasSize(3); // duplicated id is resolved once
+    }
+
+    @Test
+    void retrieveMoviesBatch_invalidOrder() {
+        webTestClient.get()
+                .uri("/v1/movies?ids={ids}&order=random", "abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
     @Test
     void retrieveMovieInfoById_404() {
         // we don't need retry on 404 => filter(ex -> ex instanceof MovieInfoServerException)  => in retrySpec
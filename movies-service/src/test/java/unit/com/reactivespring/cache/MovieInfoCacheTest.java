@@ -0,0 +1,116 @@
+package com.reactivespring.cache;
+
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.MoviesInfoServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MovieInfoCacheTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    AtomicInteger loads = new AtomicInteger();
+
+    MovieInfo movieInfo = new MovieInfo("abc", "Vruc vetar", 1980, List.of("Velimir Bata Zivojinovic"), LocalDate.parse("1980-01-01"));
+
+    @Test
+    void freshEntryIsServedFromCache() {
+        var cache = cache(Duration.ofMinutes(1), true);
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+
+        assertEquals(1, loads.get());
+        assertEquals(1.0, requests("hit"));
+        assertEquals(1.0, requests("miss"));
+    }
+
+    @Test
+    void staleEntryIsServedWhileRevalidating() throws InterruptedException {
+        var cache = cache(Duration.ofMillis(50), true);
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+        Thread.sleep(100);
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+
+        assertEquals(2, loads.get()); // refresh happened in background
+        assertEquals(1.0, requests("stale"));
+    }
+
+    @Test
+    void staleEntryIsServedWhenUpstreamFails() throws InterruptedException {
+        var cache = cache(Duration.ofMillis(50), false);
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+        Thread.sleep(100);
+
+        var failing = cache.get("abc", movieId ->
+                Mono.error(new MoviesInfoServerException("Server Exception in MoviesInfoService:  down")));
+        StepVerifier.create(failing).expectNext(movieInfo).verifyComplete();
+
+        assertEquals(1.0, requests("stale_on_error"));
+    }
+
+    @Test
+    void serverErrorWithoutStaleEntryIsPropagated() {
+        var cache = cache(Duration.ofMinutes(1), true);
+
+        var failing = cache.get("abc", movieId ->
+                Mono.error(new MoviesInfoServerException("Server Exception in MoviesInfoService:  down")));
+
+        StepVerifier.create(failing).expectError(MoviesInfoServerException.class).verify();
+    }
+
+    @Test
+    void notFoundRemovesEntry() throws InterruptedException {
+        var cache = cache(Duration.ofMillis(50), false);
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+        Thread.sleep(100);
+
+        var notFound = cache.get("abc", movieId ->
+                Mono.error(new MoviesInfoClientException("There is no Movie Info for the passed in ID:  abc", 404)));
+        StepVerifier.create(notFound).expectError(MoviesInfoClientException.class).verify();
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+        assertEquals(2.0, requests("miss"));
+    }
+
+    @Test
+    void updateRefreshesOnlyCachedEntries() {
+        var cache = cache(Duration.ofMinutes(1), true);
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(movieInfo).verifyComplete();
+
+        var updated = new MovieInfo("abc", "Vruc vetar 2", 1980, List.of("Velimir Bata Zivojinovic"), LocalDate.parse("1980-01-01"));
+        cache.update(updated);
+        cache.update(new MovieInfo("def", "Maratonci trce pocasni krug", 1982, List.of("Bogdan Diklic"), LocalDate.parse("1982-01-01")));
+
+        StepVerifier.create(cache.get("abc", this::load)).expectNext(updated).verifyComplete();
+        StepVerifier.create(cache.get("def", this::load)).expectNext(movieInfo).verifyComplete();
+        assertEquals(2, loads.get());
+    }
+
+    private MovieInfoCache cache(Duration ttl, boolean staleWhileRevalidate) {
+        return new MovieInfoCache(true, 100, ttl, Duration.ofMinutes(10), staleWhileRevalidate, meterRegistry);
+    }
+
+    private Mono<MovieInfo> load(String movieId) {
+        loads.incrementAndGet();
+        return Mono.just(movieInfo);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("movies.client.cache.requests").tag("result", result).counter().count();
+    }
+}
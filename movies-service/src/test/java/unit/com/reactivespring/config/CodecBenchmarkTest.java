@@ -0,0 +1,100 @@
+package com.reactivespring.config;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.Review;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+    json vs Smile for the payloads movies-service receives - bytes on the wire and ns/op for encode and decode
+    size checks run with every build, timings only with ./gradlew benchmark
+    not a replacement for jmh, numbers are logged to compare the formats on the same machine
+ */
+class CodecBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(CodecBenchmarkTest.class);
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+
+    ObjectMapper smile = Jackson2ObjectMapperBuilder.smile().build();
+
+    MovieInfo movieInfo = new MovieInfo("61f1a2b3c4d5e6f7a8b9c0d1", "Dark Knight Rises", 2012,
+            List.of("Cristian Bale", "Tom Hardy", "Anne Hathaway", "Gary Oldman"), LocalDate.parse("2012-07-20"));
+
+    // a movie page usually carries a list of reviews, field names repeat in every element
+    List<Review> reviews = IntStream.range(0, 20)
+            .mapToObj(i -> new Review("61f1a2b3c4d5e6f7a8b9c" + (100 + i), 1L, "Awesome Movie " + i, 7.5 + i % 3))
+            .collect(Collectors.toList());
+
+    @Test
+    void movieInfoIsSmallerAsSmile() throws Exception {
+        var type = new TypeReference<MovieInfo>() {};
+        assertTrue(encode(smile, movieInfo, type) < encode(json, movieInfo, type));
+    }
+
+    @Test
+    void reviewsAreSmallerAsSmile() throws Exception {
+        var type = new TypeReference<List<Review>>() {};
+        assertTrue(encode(smile, reviews, type) < encode(json, reviews, type));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void movieInfo() throws Exception {
+        measure("movieInfo", "json", json, movieInfo, new TypeReference<MovieInfo>() {});
+        measure("movieInfo", "smile", smile, movieInfo, new TypeReference<MovieInfo>() {});
+    }
+
+    @Test
+    @Tag("benchmark")
+    void reviews() throws Exception {
+        measure("reviews", "json", json, reviews, new TypeReference<List<Review>>() {});
+        measure("reviews", "smile", smile, reviews, new TypeReference<List<Review>>() {});
+    }
+
+    // encoded size, after checking the value survives the round trip
+    private <T> int encode(ObjectMapper mapper, T value, TypeReference<T> type) throws Exception {
+        var encoded = mapper.writeValueAsBytes(value);
+        assertEquals(value, mapper.readValue(encoded, type));
+        return encoded.length;
+    }
+
+    private <T> void measure(String payload, String format, ObjectMapper mapper, T value, TypeReference<T> type) throws Exception {
+        var encoded = mapper.writeValueAsBytes(value);
+        assertEquals(value, mapper.readValue(encoded, type));
+
+        for (int i = 0; i < WARMUP; i++) {
+            mapper.readValue(mapper.writeValueAsBytes(value), type);
+        }
+
+        var start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            encoded = mapper.writeValueAsBytes(value);
+        }
+        var encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mapper.readValue(encoded, type);
+        }
+        var decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        log.info("{} {}: {} bytes, encode {} ns/op, decode {} ns/op", payload, format, encoded.length, encodeNanos, decodeNanos);
+    }
+}
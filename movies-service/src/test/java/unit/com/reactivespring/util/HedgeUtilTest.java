@@ -0,0 +1,187 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientHedgingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HedgeUtilTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void slowPrimaryIsHedgedAndHedgeWins() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        // first attempt is slow, second one is fast
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofSeconds(2)).thenReturn("primary")
+                : Mono.delay(Duration.ofMillis(10)).thenReturn("hedge"));
+
+        StepVerifier.create(result)
+                .expectNext("hedge")
+                .verifyComplete();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1.0, hedges("fired"));
+        assertEquals(1.0, hedges("won"));
+    }
+
+    @Test
+    void hedgeErrorsFastAndPrimarySucceeds() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        // hedge fails right away while the primary is still on its way
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(300)).thenReturn("primary")
+                : Mono.<String>error(new IllegalStateException("hedge failed")));
+
+        StepVerifier.create(result)
+                .expectNext("primary")
+                .verifyComplete();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1.0, hedges("fired"));
+        assertEquals(0.0, hedges("won"));
+    }
+
+    @Test
+    void primaryErrorsAfterHedgeIsSentAndHedgeSucceeds() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(100)).then(Mono.<String>error(new IllegalStateException("primary failed")))
+                : Mono.delay(Duration.ofMillis(200)).thenReturn("hedge"));
+
+        StepVerifier.create(result)
+                .expectNext("hedge")
+                .verifyComplete();
+    }
+
+    @Test
+    void bothAttemptsFailWithPrimaryError() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(200)).then(Mono.<String>error(new IllegalStateException("primary failed")))
+                : Mono.<String>error(new IllegalArgumentException("hedge failed")));
+
+        StepVerifier.create(result)
+                .expectErrorMatches(error -> error instanceof IllegalStateException && error.getMessage().equals("primary failed"))
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void primaryErrorBeforeHedgeDelayIsNotHedged() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(new IllegalStateException("primary failed"));
+        });
+
+        StepVerifier.create(result)
+                .expectError(IllegalStateException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, attempts.get());
+        assertEquals(0.0, hedges("fired"));
+    }
+
+    @Test
+    void emptyPrimaryIsAnAnswer() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> {
+            attempts.incrementAndGet();
+            return Mono.<String>empty();
+        });
+
+        StepVerifier.create(result)
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void fastPrimaryIsNotHedged() {
+        var hedgeUtil = hedgeUtil(true, 10);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> {
+            attempts.incrementAndGet();
+            return Mono.just("primary");
+        });
+
+        StepVerifier.create(result)
+                .expectNext("primary")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+        assertEquals(0.0, hedges("fired"));
+    }
+
+    @Test
+    void hedgeIsSuppressedWhenBudgetIsEmpty() {
+        var hedgeUtil = hedgeUtil(true, 0);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> {
+            attempts.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(300)).thenReturn("primary");
+        });
+
+        StepVerifier.create(result)
+                .expectNext("primary")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+        assertEquals(1.0, hedges("suppressed"));
+    }
+
+    @Test
+    void disabledHedgingCallsOnce() {
+        var hedgeUtil = hedgeUtil(false, 10);
+        var attempts = new AtomicInteger();
+
+        var result = hedgeUtil.hedge(RetryUtil.MOVIES_INFO, () -> {
+            attempts.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(300)).thenReturn("primary");
+        });
+
+        StepVerifier.create(result)
+                .expectNext("primary")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+    }
+
+    private HedgeUtil hedgeUtil(boolean enabled, int maxTokens) {
+        var properties = new RestClientHedgingProperties();
+        properties.getMoviesInfo().setEnabled(enabled);
+        properties.getMoviesInfo().setInitialDelay(Duration.ofMillis(50));
+        properties.getMoviesInfo().setMaxTokens(maxTokens);
+        return new HedgeUtil(properties, meterRegistry);
+    }
+
+    private double hedges(String outcome) {
+        return meterRegistry.get("movies.client.hedges")
+                .tag("upstream", RetryUtil.MOVIES_INFO)
+                .tag("outcome", outcome)
+                .counter().count();
+    }
+}
@@ -0,0 +1,84 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RestClientRetryProperties;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.MoviesInfoServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetryUtilTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void serverErrorIsRetriedUpToMaxRetries() {
+        var retryUtil = retryUtil(10);
+        var calls = new AtomicInteger();
+
+        StepVerifier.create(failing(calls, new MoviesInfoServerException("down"))
+                        .retryWhen(retryUtil.retrySpec(RetryUtil.MOVIES_INFO)))
+                .expectError(MoviesInfoServerException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(4, calls.get());
+        assertEquals(3.0, retries("attempted"));
+    }
+
+    @Test
+    void clientErrorIsNotRetried() {
+        var retryUtil = retryUtil(10);
+        var calls = new AtomicInteger();
+
+        StepVerifier.create(failing(calls, new MoviesInfoClientException("not found", 404))
+                        .retryWhen(retryUtil.retrySpec(RetryUtil.MOVIES_INFO)))
+                .expectError(MoviesInfoClientException.class)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void retriesAreSuppressedWhenBudgetIsEmpty() {
+        var retryUtil = retryUtil(2);
+        var calls = new AtomicInteger();
+
+        StepVerifier.create(failing(calls, new MoviesInfoServerException("down"))
+                        .retryWhen(retryUtil.retrySpec(RetryUtil.MOVIES_INFO)))
+                .expectError(MoviesInfoServerException.class)
+                .verify(Duration.ofSeconds(5));
+
+        // two tokens (plus the deposit of this request, less than a token) allow only two retries
+        assertEquals(3, calls.get());
+        assertEquals(2.0, retries("attempted"));
+        assertEquals(1.0, retries("suppressed"));
+    }
+
+    private RetryUtil retryUtil(int budgetMaxTokens) {
+        var properties = new RestClientRetryProperties();
+        properties.getMoviesInfo().setMinBackoff(Duration.ofMillis(10));
+        properties.getMoviesInfo().setMaxBackoff(Duration.ofMillis(50));
+        properties.getMoviesInfo().setBudgetMaxTokens(budgetMaxTokens);
+        return new RetryUtil(properties, meterRegistry);
+    }
+
+    private Mono<String> failing(AtomicInteger calls, RuntimeException ex) {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.error(ex);
+        });
+    }
+
+    private double retries(String outcome) {
+        return meterRegistry.get("movies.client.retries")
+                .tag("upstream", RetryUtil.MOVIES_INFO)
+                .tag("outcome", outcome)
+                .counter().count();
+    }
+}
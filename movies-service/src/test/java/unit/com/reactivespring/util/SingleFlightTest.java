@@ -0,0 +1,87 @@
+package com.reactivespring.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SingleFlightTest {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    SingleFlight<String, String> singleFlight = new SingleFlight<>("test", meterRegistry);
+
+    @Test
+    void concurrentCallsShareOneUpstreamCall() {
+        var upstreamCalls = new AtomicInteger();
+
+        var results = Flux.range(0, 10)
+                .flatMap(i -> singleFlight.execute("abc", () -> {
+                    upstreamCalls.incrementAndGet();
+                    return Mono.delay(Duration.ofMillis(200)).thenReturn("movie");
+                }));
+
+        StepVerifier.create(results)
+                .expectNextCount(10)
+                .verifyComplete();
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1.0, meterRegistry.get("movies.client.singleflight.calls").tag("result", "leader").counter().count());
+        assertEquals(9.0, meterRegistry.get("movies.client.singleflight.calls").tag("result", "collapsed").counter().count());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    void errorIsSharedWithAllCallers() {
+        var upstreamCalls = new AtomicInteger();
+
+        var results = Flux.range(0, 3)
+                .flatMap(i -> singleFlight.execute("abc", () -> {
+                    upstreamCalls.incrementAndGet();
+                    return Mono.delay(Duration.ofMillis(200))
+                            .then(Mono.<String>error(new IllegalStateException("upstream down")));
+                }).onErrorResume(ex -> Mono.just(ex.getMessage())));
+
+        StepVerifier.create(results)
+                .expectNext("upstream down", "upstream down", "upstream down")
+                .verifyComplete();
+
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    @Test
+    void cancelledCallerDoesNotCancelOthers() {
+        var upstream = Mono.delay(Duration.ofMillis(300)).thenReturn("movie");
+
+        var leaving = singleFlight.execute("abc", () -> upstream).subscribe();
+        var staying = singleFlight.execute("abc", () -> upstream);
+
+        StepVerifier.create(staying)
+                .then(leaving::dispose)
+                .expectNext("movie")
+                .verifyComplete();
+    }
+
+    @Test
+    void differentKeysAreNotCollapsed() {
+        var upstreamCalls = new AtomicInteger();
+
+        var results = Flux.just("abc", "def")
+                .flatMap(key -> singleFlight.execute(key, () -> {
+                    upstreamCalls.incrementAndGet();
+                    return Mono.delay(Duration.ofMillis(100)).thenReturn(key);
+                }));
+
+        StepVerifier.create(results)
+                .expectNextCount(2)
+                .verifyComplete();
+
+        assertEquals(2, upstreamCalls.get());
+    }
+}